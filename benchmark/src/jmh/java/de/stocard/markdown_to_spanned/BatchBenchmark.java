@@ -0,0 +1,87 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Spanned;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Rendering the messages of a conversation as one batch, on one to eight threads. Compare the throughput across
+ * {@code threads} to see how the batch scales with the cores of the machine, and with {@link #sequential}, which
+ * renders the messages one after the other as before.
+ */
+@State(Scope.Benchmark)
+public class BatchBenchmark {
+
+    private static final int MESSAGES = 200;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param
+    public Markdown.Engine engine;
+
+    private List<String>     messages;
+    private MarkdownRenderer renderer;
+    private ExecutorService  pool;
+
+    @Setup
+    public void setUp() {
+        final String message = Corpus.SMALL.markdown();
+        messages = new ArrayList<String>(MESSAGES);
+        for (int i = 0; i < MESSAGES; i++) {
+            // every message differs, as in a real conversation
+            messages.add(i % 10 == 0 ? Corpus.MEDIUM.markdown() + i : message + " #" + i);
+        }
+        renderer = new MarkdownRenderer.Builder().engine(engine).build();
+        // the calling thread renders too
+        pool = threads > 1 ? Executors.newFixedThreadPool(threads - 1) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    @Benchmark
+    public List<Spanned> batch() {
+        return pool == null
+                ? renderer.renderAll(messages, renderer.getExecutor(), 0)
+                : renderer.renderAll(messages, pool, threads - 1);
+    }
+
+    @Benchmark
+    public List<Spanned> sequential() {
+        final List<Spanned> results = new ArrayList<Spanned>(MESSAGES);
+        for (String message : messages) {
+            results.add(renderer.render(message));
+        }
+        return results;
+    }
+}
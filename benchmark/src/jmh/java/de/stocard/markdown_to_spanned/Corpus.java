@@ -0,0 +1,96 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * The documents the benchmarks render. Generated, so every run renders exactly the same text.
+ * <p>
+ * Images are left out: without an image getter, the framework's Html loads a placeholder through the system
+ * resources, which are not available on the JVM.
+ */
+public enum Corpus {
+    /**
+     * A short chat message.
+     */
+    SMALL {
+        @Override
+        String markdown() {
+            return "Hey, your **card** was added! Check the [details](http://stocard.de/cards/42) or *ignore* it.";
+        }
+    },
+    /**
+     * An article of about 5 KB: headers, paragraphs, a list, a quote and a code block.
+     */
+    MEDIUM {
+        @Override
+        String markdown() {
+            final StringBuilder markdown = new StringBuilder();
+            for (int section = 1; section <= 4; section++) {
+                appendArticleSection(markdown, section);
+            }
+            return markdown.toString();
+        }
+    },
+    /**
+     * A document of a few hundred KB, made of deeply nested lists, many code blocks and many links.
+     */
+    LARGE {
+        @Override
+        String markdown() {
+            final StringBuilder markdown = new StringBuilder();
+            for (int section = 1; section <= 100; section++) {
+                appendArticleSection(markdown, section);
+                appendNestedList(markdown, section, 5);
+                for (int link = 0; link < 20; link++) {
+                    markdown.append("See [link ").append(link).append("](http://example.com/").append(section)
+                            .append('/').append(link).append(") and `code ").append(link).append("`. ");
+                }
+                markdown.append("\n\n");
+            }
+            return markdown.toString();
+        }
+    };
+
+    abstract String markdown();
+
+    private static void appendArticleSection(final StringBuilder markdown, final int section) {
+        markdown.append("## Section ").append(section).append("\n\n");
+        for (int paragraph = 0; paragraph < 3; paragraph++) {
+            markdown.append("Lorem ipsum dolor sit amet, *consectetur* adipiscing elit, sed do **eiusmod** tempor ")
+                    .append("incididunt ut labore et dolore magna aliqua. Ut enim ad minim veniam, quis nostrud ")
+                    .append("[exercitation](http://example.com/").append(section).append(") ullamco laboris nisi ")
+                    .append("ut aliquip ex ea `commodo` consequat.\n\n");
+        }
+        markdown.append("* first item\n* second item with ~~strikethrough~~\n* third item\n\n");
+        markdown.append("> Duis aute irure dolor in reprehenderit in voluptate velit esse cillum dolore.\n\n");
+        markdown.append("    for (int i = 0; i < ").append(section).append("; i++) {\n")
+                .append("        render(i);\n")
+                .append("    }\n\n");
+    }
+
+    private static void appendNestedList(final StringBuilder markdown, final int section, final int depth) {
+        for (int level = 0; level < depth; level++) {
+            for (int item = 0; item < 3; item++) {
+                for (int indent = 0; indent < level; indent++) {
+                    markdown.append("    ");
+                }
+                markdown.append(level % 2 == 0 ? "* " : "1. ").append("item ").append(section).append('.')
+                        .append(level).append('.').append(item).append('\n');
+            }
+        }
+        markdown.append('\n');
+    }
+}
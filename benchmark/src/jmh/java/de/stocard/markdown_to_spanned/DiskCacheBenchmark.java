@@ -0,0 +1,76 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Spanned;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Restoring a text from a {@link DiskRenderCache} compared to rendering it, as on a cold start.
+ */
+@State(Scope.Benchmark)
+public class DiskCacheBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    @Param
+    public Markdown.Engine engine;
+
+    private String           markdown;
+    private File             directory;
+    private DiskRenderCache  diskCache;
+    private MarkdownRenderer renderer;
+    private MarkdownRenderer restoringRenderer;
+
+    @Setup
+    public void setUp() throws IOException {
+        markdown = corpus.markdown();
+        directory = Files.createTempDirectory("md2s-benchmark").toFile();
+        diskCache = new DiskRenderCache(directory, Long.MAX_VALUE);
+        renderer = new MarkdownRenderer.Builder().engine(engine).build();
+        restoringRenderer = renderer.newBuilder().diskCache(diskCache).build();
+        restoringRenderer.render(markdown);
+    }
+
+    @TearDown
+    public void tearDown() {
+        diskCache.evictAll();
+        if (!directory.delete()) {
+            throw new IllegalStateException("could not delete " + directory);
+        }
+    }
+
+    @Benchmark
+    public Spanned render() {
+        return renderer.render(markdown);
+    }
+
+    @Benchmark
+    public Spanned restore() {
+        return restoringRenderer.render(markdown);
+    }
+}
@@ -0,0 +1,76 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Spannable;
+import android.text.SpannableString;
+import android.text.style.ClickableSpan;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Finding the link at a touched offset, as {@link Markdown.LocalLinkMovementMethod} does on every touch event, in a
+ * text with 10 to 1,000 links. {@link #spans} queries the spans of the text as before, {@link #index} looks the link
+ * up in its {@link LinkIndex}, which should take about the same time regardless of the number of links.
+ */
+@State(Scope.Benchmark)
+public class LinkBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int links;
+
+    private Spannable text;
+    private LinkIndex linkIndex;
+    private int[]     offsets;
+    private int       next;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder markdown = new StringBuilder();
+        for (int i = 0; i < links; i++) {
+            markdown.append("Some text with [link ").append(i).append("](http://example.com/").append(i)
+                    .append(") in it.\n\n");
+        }
+        // the copy a TextView makes of the rendered text
+        text = new SpannableString(Markdown.fromMarkdown(markdown.toString(), Markdown.Engine.DIRECT));
+        linkIndex = LinkIndex.of(text);
+        offsets = new int[64];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = (int) ((long) text.length() * i / offsets.length);
+        }
+    }
+
+    private int nextOffset() {
+        next = (next + 1) % offsets.length;
+        return offsets[next];
+    }
+
+    @Benchmark
+    public ClickableSpan spans() {
+        final int offset = nextOffset();
+        final ClickableSpan[] link = text.getSpans(offset, offset, ClickableSpan.class);
+        return link.length == 0 ? null : link[0];
+    }
+
+    @Benchmark
+    public ClickableSpan index() {
+        return linkIndex.linkAt(nextOffset());
+    }
+}
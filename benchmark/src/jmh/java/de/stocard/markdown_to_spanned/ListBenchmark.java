@@ -0,0 +1,81 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Html;
+import android.text.Spanned;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing long and deeply nested lists with {@link HTMLTagHandler}. The time per item should stay the same as the
+ * number of items grows, so the scores of the sizes should scale linearly.
+ */
+@State(Scope.Benchmark)
+public class ListBenchmark {
+
+    @Param({"1000", "10000"})
+    public int items;
+
+    private String         flatList;
+    private String         nestedList;
+    private HTMLTagHandler tagHandler;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder flat = new StringBuilder("<" + HTMLTagHandler.UL_TAG + ">");
+        for (int i = 0; i < items; i++) {
+            appendItem(flat, i);
+        }
+        flatList = flat.append("</" + HTMLTagHandler.UL_TAG + ">").toString();
+
+        // every tenth item opens a list nested in the previous one
+        final StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < items; i++) {
+            if (i % 10 == 0) {
+                nested.append('<').append(i % 20 == 0 ? HTMLTagHandler.UL_TAG : HTMLTagHandler.OL_TAG).append('>');
+            }
+            appendItem(nested, i);
+        }
+        for (int i = (items - 1) / 10; i >= 0; i--) {
+            nested.append("</").append(i % 2 == 0 ? HTMLTagHandler.UL_TAG : HTMLTagHandler.OL_TAG).append('>');
+        }
+        nestedList = nested.toString();
+
+        tagHandler = new HTMLTagHandler();
+    }
+
+    private static void appendItem(final StringBuilder html, final int item) {
+        html.append('<').append(HTMLTagHandler.LI_TAG).append(">item ").append(item)
+                .append("</").append(HTMLTagHandler.LI_TAG).append('>');
+    }
+
+    @Benchmark
+    public Spanned flat() {
+        tagHandler.reset();
+        return Html.fromHtml(flatList, Html.FROM_HTML_MODE_LEGACY, null, tagHandler);
+    }
+
+    @Benchmark
+    public Spanned nested() {
+        tagHandler.reset();
+        return Html.fromHtml(nestedList, Html.FROM_HTML_MODE_LEGACY, null, tagHandler);
+    }
+}
@@ -0,0 +1,49 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Spanned;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The whole pipeline, as used by apps: {@link Markdown#fromMarkdown(String, Markdown.Engine)}.
+ */
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    @Param
+    public Markdown.Engine engine;
+
+    private String markdown;
+
+    @Setup
+    public void setUp() {
+        markdown = corpus.markdown();
+    }
+
+    @Benchmark
+    public Spanned fromMarkdown() {
+        return Markdown.fromMarkdown(markdown, engine);
+    }
+}
@@ -0,0 +1,57 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Html;
+import android.text.Spanned;
+
+import org.markdown4j.Markdown4jProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Parsing the rewritten HTML into spans with {@link Html#fromHtml} and {@link HTMLTagHandler}, with code blocks
+ * rewritten as one block or line by line.
+ */
+@State(Scope.Benchmark)
+public class TagHandlerBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    @Param({"BLOCK", "SPLIT_LINES"})
+    public MarkdownRenderer.CodeBlocks codeBlocks;
+
+    private String         html;
+    private HTMLTagHandler tagHandler;
+
+    @Setup
+    public void setUp() throws IOException {
+        html = HtmlTagRewriter.rewrite(new Markdown4jProcessor().process(corpus.markdown()), codeBlocks);
+        tagHandler = new HTMLTagHandler();
+    }
+
+    @Benchmark
+    public Spanned fromHtml() {
+        tagHandler.reset();
+        return Html.fromHtml(html, Html.FROM_HTML_MODE_LEGACY, null, tagHandler);
+    }
+}
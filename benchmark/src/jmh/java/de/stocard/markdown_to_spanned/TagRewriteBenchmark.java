@@ -0,0 +1,58 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.markdown4j.Markdown4jProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+
+/**
+ * Rewriting the HTML generated by Markdown4j before it is parsed: list tags only, as done by
+ * {@link Markdown#customizeListTags}, and list tags together with each way of rewriting code blocks.
+ */
+@State(Scope.Benchmark)
+public class TagRewriteBenchmark {
+
+    @Param
+    public Corpus corpus;
+
+    private String html;
+
+    @Setup
+    public void setUp() throws IOException {
+        html = new Markdown4jProcessor().process(corpus.markdown());
+    }
+
+    @Benchmark
+    public String customizeListTags() {
+        return Markdown.customizeListTags(html);
+    }
+
+    @Benchmark
+    public String workaroundCodeBlocks() {
+        return HtmlTagRewriter.rewrite(html, MarkdownRenderer.CodeBlocks.SPLIT_LINES);
+    }
+
+    @Benchmark
+    public String codeBlocks() {
+        return HtmlTagRewriter.rewrite(html, MarkdownRenderer.CodeBlocks.BLOCK);
+    }
+}
@@ -0,0 +1,53 @@
+package android.os;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Replaces the framework's SystemProperties, which reads the properties through native code, for running on the JVM.
+ * Reports the platform version of the android-all artifact, any other property has its default value.
+ */
+public final class SystemProperties {
+    private static final String SDK_INT = "ro.build.version.sdk";
+
+    private SystemProperties() {
+    }
+
+    public static String get(String key) {
+        return get(key, "");
+    }
+
+    public static String get(String key, String def) {
+        return SDK_INT.equals(key) ? "24" : def;
+    }
+
+    public static int getInt(String key, int def) {
+        return SDK_INT.equals(key) ? 24 : def;
+    }
+
+    public static long getLong(String key, long def) {
+        return getInt(key, (int) def);
+    }
+
+    public static boolean getBoolean(String key, boolean def) {
+        return def;
+    }
+
+    public static void set(String key, String val) {
+    }
+
+    public static void addChangeCallback(Runnable callback) {
+    }
+}
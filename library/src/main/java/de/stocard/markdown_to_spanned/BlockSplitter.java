@@ -0,0 +1,476 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Groups Markdown source lines into top-level blocks (paragraphs, headers, code, quotes, lists, ...).
+ * <p>
+ * Lines are pushed one by one and every block is handed to the {@link Listener} as soon as it is complete,
+ * so the splitter never needs to see more than the block it is currently collecting.
+ */
+final class BlockSplitter {
+
+    enum Kind {
+        PARAGRAPH,
+        ATX_HEADER,
+        SETEXT_HEADER,
+        CODE,
+        FENCED_CODE,
+        QUOTE,
+        LIST,
+        RULE,
+        REFERENCE
+    }
+
+    /**
+     * A top-level block: its kind and the raw source lines it consists of.
+     */
+    static final class Block {
+        final Kind         kind;
+        final List<String> lines;
+        /**
+         * Index of the first source line of this block.
+         */
+        final int          firstLine;
+
+        Block(final Kind kind, final List<String> lines, final int firstLine) {
+            this.kind = kind;
+            this.lines = lines;
+            this.firstLine = firstLine;
+        }
+
+        /**
+         * Index of the source line after the last line of this block.
+         */
+        int endLine() {
+            return firstLine + lines.size();
+        }
+
+        /**
+         * Whether both blocks are of the same kind and consist of the same lines, wherever they are located.
+         */
+        boolean sameSource(final Block other) {
+            return kind == other.kind && lines.equals(other.lines);
+        }
+    }
+
+    interface Listener {
+        void onBlock(Block block);
+    }
+
+    private static final Pattern REFERENCE = Pattern.compile(
+            "^ {0,3}\\[([^\\]]+)\\]:[ \\t]*<?([^\\s>]+)>?(?:[ \\t]+[\"'(](.*)[\"')])?[ \\t]*$");
+
+    private final Listener listener;
+
+    private Kind         kind;
+    private List<String> lines;
+    private int          firstLine;
+    private int          lineCount;
+    /**
+     * Blank lines seen inside a list or code block; they only become part of the block if it continues.
+     */
+    private int          pendingBlanks;
+
+    BlockSplitter(final Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Splits a whole document.
+     */
+    static List<Block> split(final String markdown) {
+        final List<Block> blocks = new ArrayList<Block>();
+        final BlockSplitter splitter = new BlockSplitter(new Listener() {
+            @Override
+            public void onBlock(final Block block) {
+                blocks.add(block);
+            }
+        });
+        splitter.pushAll(markdown);
+        splitter.finish();
+        return blocks;
+    }
+
+    /**
+     * Splits nested content, e.g. the lines of a quote or of a list item.
+     */
+    static List<Block> split(final List<String> lines) {
+        final List<Block> blocks = new ArrayList<Block>();
+        final BlockSplitter splitter = new BlockSplitter(new Listener() {
+            @Override
+            public void onBlock(final Block block) {
+                blocks.add(block);
+            }
+        });
+        for (String line : lines) {
+            splitter.push(line);
+        }
+        splitter.finish();
+        return blocks;
+    }
+
+    void pushAll(final String text) {
+        int start = 0;
+        final int length = text.length();
+        while (start <= length) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = length;
+            }
+            int lineEnd = end;
+            if (lineEnd > start && text.charAt(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            push(text.substring(start, lineEnd));
+            start = end + 1;
+        }
+    }
+
+    void push(final String line) {
+        final int lineNo = lineCount++;
+        final boolean blank = isBlank(line);
+
+        if (kind == Kind.FENCED_CODE) {
+            lines.add(line);
+            if (isClosingFence(line)) {
+                emit();
+            }
+            return;
+        }
+        if (kind == Kind.CODE) {
+            if (blank) {
+                pendingBlanks++;
+                return;
+            }
+            if (indentation(line) >= 4) {
+                addPendingBlanks();
+                lines.add(line);
+                return;
+            }
+            emit();
+        } else if (kind == Kind.LIST) {
+            if (blank) {
+                pendingBlanks++;
+                return;
+            }
+            if (pendingBlanks == 0) {
+                if (!startsBlockInterruptingList(line)) {
+                    lines.add(line);
+                    return;
+                }
+            } else if (indentation(line) >= 2 || listContentStart(line) != -1) {
+                addPendingBlanks();
+                lines.add(line);
+                return;
+            }
+            emit();
+        } else if (kind == Kind.QUOTE) {
+            if (blank) {
+                emit();
+                return;
+            }
+            if (isQuote(line) || !startsBlock(line)) {
+                lines.add(line);
+                return;
+            }
+            emit();
+        } else if (kind == Kind.PARAGRAPH) {
+            if (blank) {
+                emit();
+                return;
+            }
+            if (isSetextUnderline(line)) {
+                final String title = lines.remove(lines.size() - 1);
+                if (!lines.isEmpty()) {
+                    emit();
+                } else {
+                    kind = null;
+                }
+                final List<String> header = new ArrayList<String>(2);
+                header.add(title);
+                header.add(line);
+                listener.onBlock(new Block(Kind.SETEXT_HEADER, header, lineNo - 1));
+                return;
+            }
+            if (!startsBlock(line) && !isReference(line)) {
+                lines.add(line);
+                return;
+            }
+            emit();
+        }
+
+        if (blank) {
+            return;
+        }
+        if (isOpeningFence(line)) {
+            begin(Kind.FENCED_CODE, line, lineNo);
+        } else if (indentation(line) >= 4) {
+            begin(Kind.CODE, line, lineNo);
+        } else if (isAtxHeader(line)) {
+            emitSingle(Kind.ATX_HEADER, line, lineNo);
+        } else if (isReference(line)) {
+            emitSingle(Kind.REFERENCE, line, lineNo);
+        } else if (isQuote(line)) {
+            begin(Kind.QUOTE, line, lineNo);
+        } else if (isRule(line)) {
+            emitSingle(Kind.RULE, line, lineNo);
+        } else if (listContentStart(line) != -1) {
+            begin(Kind.LIST, line, lineNo);
+        } else {
+            begin(Kind.PARAGRAPH, line, lineNo);
+        }
+    }
+
+    /**
+     * Emits the block that is still being collected, if any.
+     */
+    void finish() {
+        if (kind != null) {
+            emit();
+        }
+    }
+
+    private void begin(final Kind kind, final String line, final int lineNo) {
+        this.kind = kind;
+        this.lines = new ArrayList<String>();
+        this.lines.add(line);
+        this.firstLine = lineNo;
+        this.pendingBlanks = 0;
+    }
+
+    private void emit() {
+        final Block block = new Block(kind, lines, firstLine);
+        kind = null;
+        lines = null;
+        pendingBlanks = 0;
+        listener.onBlock(block);
+    }
+
+    private void emitSingle(final Kind kind, final String line, final int lineNo) {
+        final List<String> single = new ArrayList<String>(1);
+        single.add(line);
+        listener.onBlock(new Block(kind, single, lineNo));
+    }
+
+    private void addPendingBlanks() {
+        for (; pendingBlanks > 0; pendingBlanks--) {
+            lines.add("");
+        }
+    }
+
+    private boolean isClosingFence(final String line) {
+        return lines.size() > 1 && closesFence(lines.get(0), line);
+    }
+
+    /**
+     * Whether {@code line} closes the code block opened by the fence {@code opening}.
+     */
+    static boolean closesFence(final String opening, final String line) {
+        if (indentation(line) > 3) {
+            return false;
+        }
+        final String fence = opening.trim();
+        final char fenceChar = fence.charAt(0);
+        final String trimmed = line.trim();
+        final int length = runLength(trimmed, 0, fenceChar);
+        return length >= runLength(fence, 0, fenceChar) && length == trimmed.length();
+    }
+
+    /**
+     * Whether the line starts a new block even without a preceding blank line.
+     */
+    private static boolean startsBlock(final String line) {
+        return isOpeningFence(line) || isAtxHeader(line) || isQuote(line) || isRule(line) || listContentStart(line) != -1;
+    }
+
+    private static boolean startsBlockInterruptingList(final String line) {
+        return indentation(line) < 2 && (isOpeningFence(line) || isAtxHeader(line) || isRule(line));
+    }
+
+    static boolean isBlank(final String line) {
+        for (int i = 0; i < line.length(); i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Leading whitespace in columns, tabs advance to the next multiple of four.
+     */
+    static int indentation(final String line) {
+        int columns = 0;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == ' ') {
+                columns++;
+            } else if (c == '\t') {
+                columns += 4 - columns % 4;
+            } else {
+                break;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Removes up to {@code columns} columns of leading whitespace.
+     */
+    static String stripIndentation(final String line, final int columns) {
+        int column = 0;
+        int i = 0;
+        while (i < line.length() && column < columns) {
+            final char c = line.charAt(i);
+            if (c == ' ') {
+                column++;
+            } else if (c == '\t') {
+                column += 4 - column % 4;
+            } else {
+                break;
+            }
+            i++;
+        }
+        return line.substring(i);
+    }
+
+    static boolean isOpeningFence(final String line) {
+        if (indentation(line) > 3) {
+            return false;
+        }
+        final String trimmed = line.trim();
+        if (trimmed.startsWith("```")) {
+            return trimmed.indexOf('`', runLength(trimmed, 0, '`')) == -1;
+        }
+        return trimmed.startsWith("~~~");
+    }
+
+    static boolean isAtxHeader(final String line) {
+        if (indentation(line) > 3) {
+            return false;
+        }
+        final String trimmed = line.trim();
+        final int level = runLength(trimmed, 0, '#');
+        return level >= 1 && level <= 6 && (trimmed.length() == level || trimmed.charAt(level) == ' ' || trimmed.charAt(level) == '\t');
+    }
+
+    static boolean isQuote(final String line) {
+        return indentation(line) <= 3 && line.trim().startsWith(">");
+    }
+
+    static boolean isRule(final String line) {
+        if (indentation(line) > 3) {
+            return false;
+        }
+        char marker = 0;
+        int count = 0;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == ' ' || c == '\t') {
+                continue;
+            }
+            if ((c != '*' && c != '-' && c != '_') || (marker != 0 && c != marker)) {
+                return false;
+            }
+            marker = c;
+            count++;
+        }
+        return count >= 3;
+    }
+
+    static boolean isSetextUnderline(final String line) {
+        if (indentation(line) > 3) {
+            return false;
+        }
+        final String trimmed = line.trim();
+        if (trimmed.isEmpty()) {
+            return false;
+        }
+        final char marker = trimmed.charAt(0);
+        return (marker == '=' || marker == '-') && runLength(trimmed, 0, marker) == trimmed.length();
+    }
+
+    static boolean isReference(final String line) {
+        return line.indexOf("]:") != -1 && REFERENCE.matcher(line).matches();
+    }
+
+    /**
+     * Parses a link reference definition into {@code {id, url, title}}, or returns null.
+     */
+    static String[] parseReference(final String line) {
+        final Matcher matcher = REFERENCE.matcher(line);
+        if (!matcher.matches()) {
+            return null;
+        }
+        return new String[]{matcher.group(1), matcher.group(2), matcher.group(3)};
+    }
+
+    /**
+     * Returns the index at which the content of a list item starts, or -1 if the line is no list item.
+     */
+    static int listContentStart(final String line) {
+        if (indentation(line) > 3) {
+            return -1;
+        }
+        int i = 0;
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) {
+            i++;
+        }
+        if (i == line.length()) {
+            return -1;
+        }
+        final char c = line.charAt(i);
+        if (c == '*' || c == '+' || c == '-') {
+            i++;
+        } else if (c >= '0' && c <= '9') {
+            while (i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == line.length() || line.charAt(i) != '.') {
+                return -1;
+            }
+            i++;
+        } else {
+            return -1;
+        }
+        if (i == line.length() || (line.charAt(i) != ' ' && line.charAt(i) != '\t')) {
+            return -1;
+        }
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    static boolean isOrderedListItem(final String line) {
+        final String trimmed = line.trim();
+        return !trimmed.isEmpty() && trimmed.charAt(0) >= '0' && trimmed.charAt(0) <= '9';
+    }
+
+    static int runLength(final String s, final int from, final char c) {
+        int i = from;
+        while (i < s.length() && s.charAt(i) == c) {
+            i++;
+        }
+        return i - from;
+    }
+}
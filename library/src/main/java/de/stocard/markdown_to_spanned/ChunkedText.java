@@ -0,0 +1,174 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.BulletSpan;
+import android.widget.TextView;
+
+import java.util.Arrays;
+
+/**
+ * A long rendered text split into chunks of whole paragraphs, to show in a list with a text view per chunk, e.g. a
+ * {@code RecyclerView}. Only the visible chunks are then laid out and drawn, instead of the whole text on every
+ * layout pass.
+ * <p>
+ * The text is split at line breaks, which are dropped since the chunks are shown one below the other. Spans that
+ * continue past a break are split with it. Paragraph spans like quotes and margins apply per line, so they look the
+ * same. Bullets are drawn where their span starts, so a list item is never split, even if it spans several
+ * paragraphs. List numbers are part of the text.
+ */
+public final class ChunkedText {
+    /**
+     * Chunks are at least this long, unless the text ends. Shorter chunks lay out faster, but there are more of them.
+     */
+    public static final int DEFAULT_CHUNK_LENGTH = 1000;
+
+    private final Spanned[] chunks;
+
+    private ChunkedText(final Spanned[] chunks) {
+        this.chunks = chunks;
+    }
+
+    /**
+     * Splits the text into chunks of at least {@link #DEFAULT_CHUNK_LENGTH} characters.
+     */
+    public static ChunkedText split(final Spanned text) {
+        return split(text, DEFAULT_CHUNK_LENGTH);
+    }
+
+    /**
+     * @param chunkLength minimum length of the chunks, they end at the next line break that may be split
+     */
+    public static ChunkedText split(final Spanned text, final int chunkLength) {
+        if (text == null) {
+            throw new IllegalArgumentException("text == null");
+        }
+        if (chunkLength <= 0) {
+            throw new IllegalArgumentException("chunkLength <= 0");
+        }
+        final int[] starts = findChunkStarts(text, chunkLength);
+        final int count = starts.length;
+        final SpannableStringBuilder[] chunks = new SpannableStringBuilder[count];
+        final String string = text.toString();
+        for (int i = 0; i < count; i++) {
+            chunks[i] = new SpannableStringBuilder(string.substring(starts[i], chunkEnd(text, starts, i)));
+        }
+
+        // one pass over the spans, each is set on the chunks it overlaps
+        for (Object span : text.getSpans(0, text.length(), Object.class)) {
+            final int start = text.getSpanStart(span);
+            final int end = text.getSpanEnd(span);
+            final int flags = text.getSpanFlags(span);
+            int i = chunkAt(starts, start);
+            do {
+                final int chunkStart = starts[i];
+                final int chunkEnd = chunkEnd(text, starts, i);
+                final int from = Math.max(start, chunkStart);
+                final int to = Math.min(end, chunkEnd);
+                // a span covering nothing but the dropped line break is dropped with it
+                if (from < to || (start == end && from == to)) {
+                    chunks[i].setSpan(span, from - chunkStart, to - chunkStart, flags);
+                }
+                i++;
+            } while (i < count && starts[i] < end);
+        }
+        return new ChunkedText(chunks);
+    }
+
+    /**
+     * @return the starts of the chunks, the first at 0
+     */
+    private static int[] findChunkStarts(final Spanned text, final int chunkLength) {
+        // bullets may not be split, their ranges are swept in order of their start
+        final BulletSpan[] bullets = text.getSpans(0, text.length(), BulletSpan.class);
+        final int[] bulletStarts = new int[bullets.length];
+        final int[] bulletEnds = new int[bullets.length];
+        final long[] byStart = new long[bullets.length];
+        for (int i = 0; i < bullets.length; i++) {
+            byStart[i] = ((long) text.getSpanStart(bullets[i]) << 32) | i;
+        }
+        Arrays.sort(byStart);
+        for (int i = 0; i < bullets.length; i++) {
+            final int index = (int) byStart[i];
+            bulletStarts[i] = text.getSpanStart(bullets[index]);
+            bulletEnds[i] = text.getSpanEnd(bullets[index]);
+        }
+
+        int[] starts = new int[16];
+        int count = 1;
+        int next = 0;
+        int coveredUntil = 0;
+        final int length = text.length();
+        for (int i = chunkLength; i < length; i++) {
+            if (text.charAt(i) != '\n') {
+                continue;
+            }
+            while (next < bulletStarts.length && bulletStarts[next] <= i) {
+                coveredUntil = Math.max(coveredUntil, bulletEnds[next]);
+                next++;
+            }
+            // split once the chunk is long enough, unless a bullet continues after the break or nothing follows it
+            if (i - starts[count - 1] < chunkLength || coveredUntil > i + 1 || i + 1 >= length) {
+                continue;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * count);
+            }
+            starts[count++] = i + 1;
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    /**
+     * End of the chunk, before the line break that separates it from the next one.
+     */
+    private static int chunkEnd(final Spanned text, final int[] starts, final int index) {
+        return index + 1 < starts.length ? starts[index + 1] - 1 : text.length();
+    }
+
+    /**
+     * @return the index of the chunk containing the position, a position on a dropped line break belongs to the
+     * chunk before it
+     */
+    private static int chunkAt(final int[] starts, final int position) {
+        int index = Arrays.binarySearch(starts, position);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return Math.max(0, index);
+    }
+
+    /**
+     * Number of chunks, at least one.
+     */
+    public int size() {
+        return chunks.length;
+    }
+
+    public Spanned get(final int index) {
+        return chunks[index];
+    }
+
+    /**
+     * Sets the chunk on the view, e.g. when binding a list item, and makes its links clickable.
+     */
+    public void bind(final int index, final TextView view) {
+        view.setText(chunks[index]);
+        view.setMovementMethod(Markdown.LocalLinkMovementMethod.getInstance());
+    }
+}
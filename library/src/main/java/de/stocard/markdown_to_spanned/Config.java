@@ -22,4 +22,5 @@ package de.stocard.markdown_to_spanned;
 public class Config {
 	public final static boolean DEBUG = BuildConfig.DEBUG;
 	public final static String TAG = "md2s";
+	public final static String VERSION = BuildConfig.VERSION_NAME;
 }
@@ -0,0 +1,81 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Build;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Updates the view showing a text once its images have loaded. All images loaded within a frame are handled by a
+ * single pass at the start of the next frame: the view is laid out again if an image changed its size, otherwise
+ * just redrawn. Main thread only.
+ */
+final class ContainerUpdater {
+    /**
+     * Frame interval used before {@link View#postOnAnimation} is available.
+     */
+    static final long FRAME_DELAY_MILLIS = 16;
+
+    private final View     container;
+    private final Runnable update = new Runnable() {
+        @Override
+        public void run() {
+            update();
+        }
+    };
+
+    private boolean scheduled;
+    private boolean relayout;
+
+    ContainerUpdater(final View container) {
+        if (container == null) {
+            throw new IllegalArgumentException("container == null");
+        }
+        this.container = container;
+    }
+
+    /**
+     * @param resized whether an image changed its size, so the view has to be laid out again
+     */
+    void imageLoaded(final boolean resized) {
+        relayout |= resized;
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            container.postOnAnimation(update);
+        } else {
+            container.postDelayed(update, FRAME_DELAY_MILLIS);
+        }
+    }
+
+    private void update() {
+        scheduled = false;
+        if (relayout) {
+            relayout = false;
+            if (container instanceof TextView) {
+                // a text view keeps the line heights of its layout, setting the text again measures the images anew
+                final TextView textView = (TextView) container;
+                textView.setText(textView.getText());
+            } else {
+                container.requestLayout();
+            }
+        }
+        container.invalidate();
+    }
+}
@@ -0,0 +1,330 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Typeface;
+import android.text.Html;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.QuoteSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders Markdown straight into a {@link SpannableStringBuilder}, without generating and re-parsing HTML.
+ * <p>
+ * The produced spans are the same ones the {@link Markdown.Engine#MARKDOWN4J} pipeline gets from
+ * {@link Html#fromHtml} and {@link HTMLTagHandler}. Raw HTML inside the Markdown is not interpreted.
+ */
+final class DirectRenderer {
+    /**
+     * Relative header sizes as used by {@link Html}.
+     */
+    private static final float[] HEADER_SIZES = {1.5f, 1.4f, 1.3f, 1.2f, 1.1f, 1f};
+
+    /**
+     * Quotes and lists, as well as emphasis and links, nested deeper than this are kept as literal text. Every level
+     * is rendered by a nested call and copies its content, so deeper input would overflow the stack and take
+     * quadratic time.
+     */
+    static final int MAX_NESTING = 32;
+
+    private final Html.ImageGetter imageGetter;
+    /**
+     * Whether every line of a code block gets its own span, rather than the whole block one.
+     */
+    private final boolean          splitCodeLines;
+
+    DirectRenderer(final Html.ImageGetter imageGetter) {
+        this(imageGetter, MarkdownRenderer.CodeBlocks.BLOCK);
+    }
+
+    DirectRenderer(final Html.ImageGetter imageGetter, final MarkdownRenderer.CodeBlocks codeBlocks) {
+        this.imageGetter = imageGetter;
+        splitCodeLines = codeBlocks != MarkdownRenderer.CodeBlocks.BLOCK;
+    }
+
+    /**
+     * @return the rendered text, not yet trimmed
+     */
+    Spanned render(final String markdown) {
+        final List<BlockSplitter.Block> blocks = BlockSplitter.split(markdown);
+        final InlineRenderer inline = new InlineRenderer(collectReferences(blocks), imageGetter);
+
+        final SpannableStringBuilder out = new SpannableStringBuilder();
+        for (BlockSplitter.Block block : blocks) {
+            renderBlock(block, inline, out, 0, 0, false);
+        }
+        return out;
+    }
+
+    InlineRenderer newInlineRenderer(final Map<String, String[]> references) {
+        return new InlineRenderer(references, imageGetter);
+    }
+
+    /**
+     * Renders a top-level block on its own, without the line breaks {@link #render} separates it from the preceding
+     * text with. Appended after that separation, the result equals what {@link #render} produces for the block.
+     */
+    SpannableStringBuilder renderContent(final BlockSplitter.Block block, final InlineRenderer inline) {
+        final SpannableStringBuilder out = new SpannableStringBuilder();
+        renderBlock(block, inline, out, 0, 0, false);
+        return out;
+    }
+
+    /**
+     * Whether the block shows up in the rendered text, i.e. is separated from the preceding text.
+     */
+    static boolean isRendered(final BlockSplitter.Block block) {
+        return block.kind != BlockSplitter.Kind.REFERENCE && block.kind != BlockSplitter.Kind.RULE;
+    }
+
+    static Map<String, String[]> collectReferences(final List<BlockSplitter.Block> blocks) {
+        final Map<String, String[]> references = new HashMap<String, String[]>();
+        for (BlockSplitter.Block block : blocks) {
+            if (block.kind == BlockSplitter.Kind.REFERENCE) {
+                final String[] reference = BlockSplitter.parseReference(block.lines.get(0));
+                references.put(reference[0].toLowerCase(), reference);
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Appends a block, separated from the preceding text by an empty line or, for {@code tight} content of list
+     * items, by a single line break.
+     *
+     * @param nesting   number of quotes and lists this block is nested in
+     * @param listDepth number of lists this block is nested in
+     */
+    private void renderBlock(final BlockSplitter.Block block, final InlineRenderer inline,
+                             final SpannableStringBuilder out, final int nesting, final int listDepth,
+                             final boolean tight) {
+        if (!isRendered(block)) {
+            return;
+        }
+        separate(out, tight ? 1 : 2);
+        if (nesting >= MAX_NESTING
+                && (block.kind == BlockSplitter.Kind.QUOTE || block.kind == BlockSplitter.Kind.LIST)) {
+            inline.render(joinTrimmed(block.lines, 0, block.lines.size()), out);
+            return;
+        }
+        switch (block.kind) {
+            case PARAGRAPH:
+                inline.render(joinTrimmed(block.lines, 0, block.lines.size()), out);
+                break;
+            case ATX_HEADER:
+                renderAtxHeader(block.lines.get(0), inline, out);
+                break;
+            case SETEXT_HEADER:
+                final int level = block.lines.get(1).trim().charAt(0) == '=' ? 1 : 2;
+                renderHeader(level, block.lines.get(0).trim(), inline, out);
+                break;
+            case CODE:
+                renderCode(codeLines(block), out);
+                break;
+            case FENCED_CODE:
+                renderCode(fencedCodeLines(block), out);
+                break;
+            case QUOTE:
+                renderQuote(block, inline, out, nesting + 1, listDepth);
+                break;
+            case LIST:
+                renderList(block, inline, out, nesting + 1, listDepth + 1);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void renderAtxHeader(final String line, final InlineRenderer inline,
+                                        final SpannableStringBuilder out) {
+        String text = line.trim();
+        final int level = BlockSplitter.runLength(text, 0, '#');
+        text = text.substring(level);
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == '#') {
+            end--;
+        }
+        if (end == 0 || text.charAt(end - 1) == ' ' || text.charAt(end - 1) == '\t') {
+            text = text.substring(0, end);
+        }
+        renderHeader(level, text.trim(), inline, out);
+    }
+
+    private static void renderHeader(final int level, final String text, final InlineRenderer inline,
+                                     final SpannableStringBuilder out) {
+        final int where = out.length();
+        inline.render(text, out);
+        final int len = out.length();
+        if (where != len) {
+            out.setSpan(new RelativeSizeSpan(HEADER_SIZES[level - 1]), where, len, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            out.setSpan(new StyleSpan(Typeface.BOLD), where, len, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
+    private static List<String> codeLines(final BlockSplitter.Block block) {
+        final List<String> lines = new ArrayList<String>(block.lines.size());
+        for (String line : block.lines) {
+            lines.add(BlockSplitter.stripIndentation(line, 4));
+        }
+        return lines;
+    }
+
+    private static List<String> fencedCodeLines(final BlockSplitter.Block block) {
+        final int size = block.lines.size();
+        final boolean closed = size > 1 && BlockSplitter.closesFence(block.lines.get(0), block.lines.get(size - 1));
+        return block.lines.subList(1, closed ? size - 1 : size);
+    }
+
+    /**
+     * The whole code block gets one monospace span, or every line its own one, just like the code blocks of the HTML
+     * pipeline, see {@link MarkdownRenderer.CodeBlocks}.
+     */
+    private void renderCode(final List<String> lines, final SpannableStringBuilder out) {
+        final int blockStart = out.length();
+        for (int i = 0; i < lines.size(); i++) {
+            if (i > 0) {
+                out.append('\n');
+            }
+            final int where = out.length();
+            out.append(lines.get(i));
+            final int len = out.length();
+            if (splitCodeLines && where != len) {
+                out.setSpan(new TypefaceSpan("monospace"), where, len, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+        if (!splitCodeLines && blockStart != out.length()) {
+            out.setSpan(new TypefaceSpan("monospace"), blockStart, out.length(), Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
+    private void renderQuote(final BlockSplitter.Block block, final InlineRenderer inline,
+                             final SpannableStringBuilder out, final int nesting, final int listDepth) {
+        final List<String> content = new ArrayList<String>(block.lines.size());
+        for (String line : block.lines) {
+            String stripped = line.trim();
+            if (stripped.startsWith(">")) {
+                stripped = stripped.substring(1);
+                if (stripped.startsWith(" ")) {
+                    stripped = stripped.substring(1);
+                }
+            }
+            content.add(stripped);
+        }
+        final int where = out.length();
+        for (BlockSplitter.Block nested : BlockSplitter.split(content)) {
+            renderBlock(nested, inline, out, nesting, listDepth, false);
+        }
+        ensureNewline(out);
+        final int len = out.length();
+        if (where != len) {
+            out.setSpan(new QuoteSpan(), where, len, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
+    /**
+     * Mirrors {@link HTMLTagHandler}: every item starts on a new line, ordered items are prefixed with their number
+     * and the item spans are set once the item, including nested lists, is complete.
+     *
+     * @param nesting     number of quotes and lists the content of the items is nested in
+     * @param indentation nesting level of this list, 1 for the outermost list
+     */
+    private void renderList(final BlockSplitter.Block block, final InlineRenderer inline,
+                            final SpannableStringBuilder out, final int nesting, final int indentation) {
+        final boolean ordered = BlockSplitter.isOrderedListItem(block.lines.get(0));
+        final int markerIndentation = BlockSplitter.indentation(block.lines.get(0));
+        int number = 1;
+
+        List<String> item = null;
+        final List<List<String>> items = new ArrayList<List<String>>();
+        for (String line : block.lines) {
+            final int contentStart = BlockSplitter.listContentStart(line);
+            if (contentStart != -1 && BlockSplitter.indentation(line) <= markerIndentation + 3) {
+                item = new ArrayList<String>();
+                items.add(item);
+                item.add(line.substring(contentStart));
+            } else {
+                item.add(BlockSplitter.stripIndentation(line, 4));
+            }
+        }
+
+        for (List<String> lines : items) {
+            ensureNewline(out);
+            final int where = out.length();
+            if (ordered) {
+                out.append(Integer.toString(number++)).append(". ");
+            }
+            final List<BlockSplitter.Block> content = BlockSplitter.split(lines);
+            for (int i = 0; i < content.size(); i++) {
+                final BlockSplitter.Block nested = content.get(i);
+                if (i == 0 && nested.kind == BlockSplitter.Kind.PARAGRAPH) {
+                    inline.render(joinTrimmed(nested.lines, 0, nested.lines.size()), out);
+                } else {
+                    renderBlock(nested, inline, out, nesting, indentation, true);
+                }
+            }
+            ensureNewline(out);
+            final int len = out.length();
+            if (where != len) {
+                final Object[] spans = ordered
+                        ? HTMLTagHandler.orderedItemSpans(indentation)
+                        : HTMLTagHandler.unorderedItemSpans(indentation);
+                for (Object span : spans) {
+                    out.setSpan(span, where, len, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                }
+            }
+        }
+    }
+
+    private static String joinTrimmed(final List<String> lines, final int from, final int to) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                builder.append('\n');
+            }
+            builder.append(lines.get(i).trim());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Makes sure the text ends with (at least) {@code newlines} line breaks, unless it is empty.
+     */
+    private static void separate(final SpannableStringBuilder out, final int newlines) {
+        final int len = out.length();
+        if (len == 0) {
+            return;
+        }
+        int existing = 0;
+        while (existing < newlines && existing < len && out.charAt(len - 1 - existing) == '\n') {
+            existing++;
+        }
+        for (; existing < newlines; existing++) {
+            out.append('\n');
+        }
+    }
+
+    private static void ensureNewline(final SpannableStringBuilder out) {
+        separate(out, 1);
+    }
+}
@@ -0,0 +1,279 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A directory of files bounded by their summed size, deleting the least recently used files once it grows too large.
+ * <p>
+ * Files are replaced atomically, so readers never see a partial file. Large files are memory-mapped when read. Reading
+ * a file marks it as used by updating its modification time. Thread-safe, but a directory must not be shared by several
+ * instances.
+ */
+final class DiskLruFiles {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Files of at least this size are memory-mapped, smaller ones are cheaper to read into the heap.
+     */
+    private static final int MAP_THRESHOLD = 64 * 1024;
+
+    private final File       directory;
+    private final long       maxSize;
+    private final String     suffix;
+    private final FileFilter filter;
+
+    /**
+     * Summed size of all files, or -1 until the directory is first scanned.
+     */
+    private long size = -1;
+    private int  evictionCount;
+
+    /**
+     * @param suffix of the files, other files in the directory are ignored
+     */
+    DiskLruFiles(final File directory, final long maxSize, final String suffix) {
+        if (directory == null) {
+            throw new IllegalArgumentException("directory == null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.suffix = suffix;
+        filter = new FileFilter() {
+            @Override
+            public boolean accept(final File file) {
+                return file.getName().endsWith(suffix);
+            }
+        };
+    }
+
+    /**
+     * Name of the file for the given parts, their SHA-1 hash.
+     */
+    static String hash(final String... parts) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        }
+        for (String part : parts) {
+            digest.update(part.getBytes(UTF_8));
+            digest.update((byte) 0);
+        }
+        final byte[] hash = digest.digest();
+        final StringBuilder name = new StringBuilder(2 * hash.length);
+        for (byte b : hash) {
+            name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return name.toString();
+    }
+
+    /**
+     * @return the content of the file, or null if there is none or it could not be read
+     */
+    ByteBuffer read(final String name) {
+        final File file = file(name);
+        final FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            final FileChannel channel = in.getChannel();
+            final long length = channel.size();
+            final ByteBuffer buffer;
+            if (length >= MAP_THRESHOLD) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } else {
+                buffer = ByteBuffer.allocate((int) length);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                    // read until full
+                }
+                buffer.flip();
+            }
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return buffer;
+        } catch (IOException e) {
+            Log.w(Config.TAG, "could not read " + file + ": " + e.getMessage());
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Writes the remaining content of the buffer, unless it is larger than the whole directory may be.
+     */
+    void write(final String name, final ByteBuffer content) {
+        final int length = content.remaining();
+        if (length > maxSize) {
+            return;
+        }
+        final File file = file(name);
+        File temp = null;
+        FileOutputStream out = null;
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            directory.mkdirs();
+            // written aside and renamed, so readers never see a partial file
+            temp = File.createTempFile(file.getName(), ".tmp", directory);
+            out = new FileOutputStream(temp);
+            final FileChannel channel = out.getChannel();
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            out.close();
+            out = null;
+
+            synchronized (this) {
+                ensureSize();
+                final long previous = file.length();
+                if (temp.renameTo(file)) {
+                    temp = null;
+                    size += length - previous;
+                    trimToSize();
+                }
+            }
+        } catch (IOException e) {
+            Log.w(Config.TAG, "could not write " + file + ": " + e.getMessage());
+        } finally {
+            closeQuietly(out);
+            if (temp != null) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Deletes a damaged file. Its size may have changed behind our back, so the directory is scanned again.
+     */
+    synchronized void discard(final String name) {
+        //noinspection ResultOfMethodCallIgnored
+        file(name).delete();
+        size = -1;
+    }
+
+    private File file(final String name) {
+        return new File(directory, name + suffix);
+    }
+
+    private void ensureSize() {
+        if (size >= 0) {
+            return;
+        }
+        size = 0;
+        for (File file : listFiles()) {
+            size += file.length();
+        }
+    }
+
+    /**
+     * Deletes the least recently used files until the directory fits its maximum size.
+     */
+    private void trimToSize() {
+        if (size <= maxSize) {
+            return;
+        }
+        final File[] files = listFiles();
+        final long[] lastModified = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+        }
+        final Integer[] order = new Integer[files.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer a, final Integer b) {
+                final long left = lastModified[a];
+                final long right = lastModified[b];
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < order.length && size > maxSize; i++) {
+            final File file = files[order[i]];
+            final long length = file.length();
+            if (file.delete()) {
+                size -= length;
+                evictionCount++;
+            }
+        }
+    }
+
+    private File[] listFiles() {
+        final File[] files = directory.listFiles(filter);
+        return files == null ? new File[0] : files;
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    synchronized void evictAll() {
+        for (File file : listFiles()) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+        size = -1;
+    }
+
+    synchronized long size() {
+        ensureSize();
+        return size;
+    }
+
+    long maxSize() {
+        return maxSize;
+    }
+
+    File directory() {
+        return directory;
+    }
+
+    synchronized int evictionCount() {
+        return evictionCount;
+    }
+}
@@ -0,0 +1,132 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Cache of rendered Markdown on disk, so texts rendered once are restored without parsing on later launches.
+ * <p>
+ * Every text is stored as a serialized {@link SpanPlan} in a file of its own, named by the SHA-1 hash of the library
+ * version, the rendering options and the Markdown. Large files are memory-mapped when read. Once the files exceed the
+ * maximum size, the least recently used ones are deleted. Texts with spans that can't be serialized are not stored.
+ * <p>
+ * Reading and writing happens on the rendering thread, so renderers with a disk cache should render off the main
+ * thread, e.g. with {@link MarkdownRenderer#setMarkdownAsync}. The cache is thread-safe, but a directory must not be
+ * shared by several instances.
+ */
+public final class DiskRenderCache {
+    private final DiskLruFiles files;
+
+    private int hitCount;
+    private int missCount;
+
+    /**
+     * @param directory where the rendered texts are stored, e.g. in {@code Context.getCacheDir()}. Created if missing.
+     * @param maxSize   maximum summed size of all files, in bytes
+     */
+    public DiskRenderCache(final File directory, final long maxSize) {
+        files = new DiskLruFiles(directory, maxSize, Prerendered.SUFFIX);
+    }
+
+    /**
+     * @param options describes the options the Markdown is rendered with, must be the same across launches
+     * @return the stored plan, or null if there is none
+     */
+    SpanPlan get(final String markdown, final String options) {
+        final String name = DiskLruFiles.hash(Config.VERSION, options, markdown);
+        final SpanPlan plan = read(name);
+        synchronized (this) {
+            if (plan == null) {
+                missCount++;
+            } else {
+                hitCount++;
+            }
+        }
+        return plan;
+    }
+
+    private SpanPlan read(final String name) {
+        final ByteBuffer buffer = files.read(name);
+        if (buffer == null) {
+            return null;
+        }
+        try {
+            return SpanPlan.readFrom(buffer);
+        } catch (IllegalArgumentException e) {
+            files.discard(name);
+            return null;
+        } catch (BufferUnderflowException e) {
+            files.discard(name);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the plan unless it can't be serialized or is larger than the whole cache.
+     */
+    void put(final String markdown, final String options, final SpanPlan plan) {
+        if (!plan.isSerializable() || plan.serializedSize() > files.maxSize()) {
+            return;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(plan.serializedSize());
+        plan.writeTo(buffer);
+        buffer.flip();
+        files.write(DiskLruFiles.hash(Config.VERSION, options, markdown), buffer);
+    }
+
+    /**
+     * Deletes all stored texts.
+     */
+    public void evictAll() {
+        files.evictAll();
+    }
+
+    /**
+     * Summed size of all stored texts, in bytes.
+     */
+    public long size() {
+        return files.size();
+    }
+
+    public long maxSize() {
+        return files.maxSize();
+    }
+
+    public File getDirectory() {
+        return files.directory();
+    }
+
+    public synchronized int hitCount() {
+        return hitCount;
+    }
+
+    public synchronized int missCount() {
+        return missCount;
+    }
+
+    public int evictionCount() {
+        return files.evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "DiskRenderCache[" + getDirectory() + ", size=" + size() + "/" + maxSize() + ", hits=" + hitCount()
+                + ", misses=" + missCount() + ", evictions=" + evictionCount() + "]";
+    }
+}
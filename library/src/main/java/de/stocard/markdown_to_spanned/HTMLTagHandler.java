@@ -24,7 +24,6 @@ package de.stocard.markdown_to_spanned;
 import android.text.Editable;
 import android.text.Html;
 import android.text.Layout;
-import android.text.Spannable;
 import android.text.Spanned;
 import android.text.style.AlignmentSpan;
 import android.text.style.BulletSpan;
@@ -35,7 +34,7 @@ import android.util.Log;
 
 import org.xml.sax.XMLReader;
 
-import java.util.Stack;
+import java.util.ArrayDeque;
 
 // https://raw.githubusercontent.com/sufficientlysecure/html-textview
 
@@ -54,21 +53,38 @@ public class HTMLTagHandler implements Html.TagHandler {
     private static final int        LIST_ITEM_INDENT_PX = INDENT_PX * 2;
     private static final BulletSpan BULLET_SPAN         = new BulletSpan(INDENT_PX);
     public static final  String     CODE                = "code";
+    /**
+     * A whole code block, see {@link MarkdownRenderer.CodeBlocks#BLOCK}.
+     */
+    public static final  String     CODE_BLOCK          = "codeblock";
     public static final  String     CENTER              = "center";
     public static final  String     STRIKE              = "strike";
     public static final  String     STRIKE_SHORT        = "s";
 
     /**
-     * Keeps track of lists (ol, ul). On bottom of Stack is the outermost list
-     * and on top of Stack is the most nested list
+     * Keeps track of lists (ol, ul). On bottom of the stack is the outermost list
+     * and on top of the stack is the most nested list
      */
-    private final Stack<ListTag> lists = new Stack<ListTag>();
+    private final ArrayDeque<ListTag> lists = new ArrayDeque<ListTag>();
+
+    /**
+     * Start offsets of the open code, code block, center and strike tags.
+     */
+    private final OffsetStack codeStarts      = new OffsetStack();
+    private final OffsetStack codeBlockStarts = new OffsetStack();
+    private final OffsetStack centerStarts    = new OffsetStack();
+    private final OffsetStack strikeStarts    = new OffsetStack();
 
 
     /**
      * Abstract super class for {@link Ul} and {@link Ol}.
      */
     private abstract static class ListTag {
+        /**
+         * Start offset of the open item, or -1 if no item is open.
+         */
+        private int itemStart = -1;
+
         /**
          * Opens a new list item.
          *
@@ -78,8 +94,7 @@ public class HTMLTagHandler implements Html.TagHandler {
             if (text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
                 text.append("\n");
             }
-            final int len = text.length();
-            text.setSpan(this, len, len, Spanned.SPAN_MARK_MARK);
+            itemStart = text.length();
         }
 
         /**
@@ -92,32 +107,21 @@ public class HTMLTagHandler implements Html.TagHandler {
             if (text.length() > 0 && text.charAt(text.length() - 1) != '\n') {
                 text.append("\n");
             }
-            final Object[] replaces = getReplaces(text, indentation);
+            final int where = itemStart;
+            itemStart = -1;
+            if (where == -1) {
+                // closing tag without opening one
+                return;
+            }
             final int len = text.length();
-            final ListTag listTag = getLast(text);
-            final int where = text.getSpanStart(listTag);
-            text.removeSpan(listTag);
             if (where != len) {
-                for (Object replace : replaces) {
+                for (Object replace : getReplaces(text, indentation)) {
                     text.setSpan(replace, where, len, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
                 }
             }
         }
 
         protected abstract Object[] getReplaces(final Editable text, final int indentation);
-
-        /**
-         * Note: This knows that the last returned object from getSpans() will be the most recently added.
-         *
-         * @see Html
-         */
-        private ListTag getLast(final Spanned text) {
-            final ListTag[] listTags = text.getSpans(0, text.length(), ListTag.class);
-            if (listTags.length == 0) {
-                return null;
-            }
-            return listTags[listTags.length - 1];
-        }
     }
 
     /**
@@ -127,20 +131,7 @@ public class HTMLTagHandler implements Html.TagHandler {
 
         @Override
         protected Object[] getReplaces(final Editable text, final int indentation) {
-            // Nested BulletSpans increases distance between BULLET_SPAN and text, so we must prevent it.
-            int bulletMargin = INDENT_PX;
-            if (indentation > 1) {
-                bulletMargin = INDENT_PX - BULLET_SPAN.getLeadingMargin(true);
-                if (indentation > 2) {
-                    // This get's more complicated when we add a LeadingMarginSpan into the same line:
-                    // we have also counter it's effect to BulletSpan
-                    bulletMargin -= (indentation - 2) * LIST_ITEM_INDENT_PX;
-                }
-            }
-            return new Object[]{
-                    new LeadingMarginSpan.Standard(LIST_ITEM_INDENT_PX * (indentation - 1)),
-                    new BulletSpan(bulletMargin)
-            };
+            return unorderedItemSpans(indentation);
         }
     }
 
@@ -174,41 +165,100 @@ public class HTMLTagHandler implements Html.TagHandler {
 
         @Override
         protected Object[] getReplaces(final Editable text, final int indentation) {
-            int numberMargin = LIST_ITEM_INDENT_PX * (indentation - 1);
+            return orderedItemSpans(indentation);
+        }
+    }
+
+    /**
+     * Spans of an unordered list item at the given nesting level (1 for the outermost list).
+     */
+    static Object[] unorderedItemSpans(final int indentation) {
+        // Nested BulletSpans increases distance between BULLET_SPAN and text, so we must prevent it.
+        int bulletMargin = INDENT_PX;
+        if (indentation > 1) {
+            bulletMargin = INDENT_PX - BULLET_SPAN.getLeadingMargin(true);
             if (indentation > 2) {
-                // Same as in ordered lists: counter the effect of nested Spans
-                numberMargin -= (indentation - 2) * LIST_ITEM_INDENT_PX;
+                // This get's more complicated when we add a LeadingMarginSpan into the same line:
+                // we have also counter it's effect to BulletSpan
+                bulletMargin -= (indentation - 2) * LIST_ITEM_INDENT_PX;
             }
-            return new Object[]{new LeadingMarginSpan.Standard(numberMargin)};
         }
+        return new Object[]{
+                new LeadingMarginSpan.Standard(LIST_ITEM_INDENT_PX * (indentation - 1)),
+                new BulletSpan(bulletMargin)
+        };
     }
 
-    private static class Code {
+    /**
+     * Spans of an ordered list item at the given nesting level (1 for the outermost list).
+     */
+    static Object[] orderedItemSpans(final int indentation) {
+        int numberMargin = LIST_ITEM_INDENT_PX * (indentation - 1);
+        if (indentation > 2) {
+            // Same as in ordered lists: counter the effect of nested Spans
+            numberMargin -= (indentation - 2) * LIST_ITEM_INDENT_PX;
+        }
+        return new Object[]{new LeadingMarginSpan.Standard(numberMargin)};
     }
 
-    private static class Center {
+    /**
+     * Start offsets of the open tags of one kind, the innermost on top.
+     */
+    private static final class OffsetStack {
+        private int[] offsets = new int[8];
+        private int   size;
+
+        void push(final int offset) {
+            if (size == offsets.length) {
+                final int[] grown = new int[size * 2];
+                System.arraycopy(offsets, 0, grown, 0, size);
+                offsets = grown;
+            }
+            offsets[size++] = offset;
+        }
+
+        /**
+         * @return the most recently pushed offset, or -1 if empty
+         */
+        int pop() {
+            return size == 0 ? -1 : offsets[--size];
+        }
+
+        void clear() {
+            size = 0;
+        }
     }
 
-    private static class Strike {
+    /**
+     * Forgets any state left over from a previous document, so the handler can be reused.
+     */
+    void reset() {
+        lists.clear();
+        codeStarts.clear();
+        codeBlockStarts.clear();
+        centerStarts.clear();
+        strikeStarts.clear();
     }
 
     @Override
     public void handleTag(final boolean opening, final String tag, Editable output, final XMLReader xmlReader) {
-
-        Log.d(Config.TAG, tag);
         if (UL_TAG.equalsIgnoreCase(tag)) {
             if (opening) {   // handle <ul>
                 lists.push(new Ul());
-            } else {   // handle </ul>
+            } else if (!lists.isEmpty()) {   // handle </ul>
                 lists.pop();
             }
         } else if (OL_TAG.equalsIgnoreCase(tag)) {
             if (opening) {   // handle <ol>
                 lists.push(new Ol()); // use default start index of 1
-            } else {   // handle </ol>
+            } else if (!lists.isEmpty()) {   // handle </ol>
                 lists.pop();
             }
         } else if (LI_TAG.equalsIgnoreCase(tag)) {
+            if (lists.isEmpty()) {
+                // item outside of any list
+                return;
+            }
             if (opening) {   // handle <li>
                 lists.peek().openItem(output);
             } else {   // handle </li>
@@ -216,37 +266,43 @@ public class HTMLTagHandler implements Html.TagHandler {
             }
         } else if (tag.equalsIgnoreCase(CODE)) {
             if (opening) {   // handle <code>
-                start(output, new Code());
+                start(output, codeStarts);
             } else {   // handle </code>
-                end(output, Code.class, false, new TypefaceSpan("monospace"));
+                end(output, codeStarts, false, new TypefaceSpan("monospace"));
+            }
+        } else if (tag.equalsIgnoreCase(CODE_BLOCK)) {
+            if (opening) {   // handle <codeblock>
+                start(output, codeBlockStarts);
+            } else {   // handle </codeblock>
+                end(output, codeBlockStarts, false, new TypefaceSpan("monospace"));
             }
         } else if (tag.equalsIgnoreCase(CENTER)) {
             if (opening) {   // handle <center>
-                start(output, new Center());
+                start(output, centerStarts);
             } else {   // handle </center>
-                end(output, Center.class, true, new AlignmentSpan.Standard(Layout.Alignment.ALIGN_CENTER));
+                end(output, centerStarts, true, new AlignmentSpan.Standard(Layout.Alignment.ALIGN_CENTER));
             }
 
         } else if (tag.equalsIgnoreCase(STRIKE_SHORT) || tag.equalsIgnoreCase(STRIKE)) {
             if (opening) {   // handle <strike>
-                start(output, new Strike());
+                start(output, strikeStarts);
             } else {   // handle </strike>
-                end(output, Strike.class, false, new StrikethroughSpan());
+                end(output, strikeStarts, false, new StrikethroughSpan());
             }
 
 
-        } else {
+        } else if (Config.DEBUG) {
             Log.d(Config.TAG, "ingnoring unsupported closing tag: " + tag);
         }
 
     }
 
     /**
-     * Mark the opening tag by using private classes
+     * Remembers where the opening tag is, as the text is only ever appended to while parsing.
      */
-    private void start(Editable output, Object mark) {
+    private void start(Editable output, OffsetStack starts) {
         int len = output.length();
-        output.setSpan(mark, len, len, Spannable.SPAN_MARK_MARK);
+        starts.push(len);
 
         if (Config.DEBUG) {
             Log.d(Config.TAG, "len: " + len);
@@ -256,15 +312,16 @@ public class HTMLTagHandler implements Html.TagHandler {
     /**
      * Modified from {@link android.text.Html}
      */
-    private void end(Editable output, Class kind, boolean paragraphStyle, Object... replaces) {
-        Object obj = getLast(output, kind);
+    private void end(Editable output, OffsetStack starts, boolean paragraphStyle, Object... replaces) {
         // start of the tag
-        int where = output.getSpanStart(obj);
+        int where = starts.pop();
+        if (where == -1) {
+            // closing tag without opening one
+            return;
+        }
         // end of the tag
         int len = output.length();
 
-        output.removeSpan(obj);
-
         if (where != len) {
             int thisLen = len;
             // paragraph styles like AlignmentSpan need to end with a new line!
@@ -272,11 +329,6 @@ public class HTMLTagHandler implements Html.TagHandler {
                 output.append("\n");
                 thisLen++;
             }
-            if (kind.equals(Code.class)) {
-                String outputString = output.toString();
-                Log.d(Config.TAG, "pre: " + outputString);
-            }
-
             for (Object replace : replaces) {
                 output.setSpan(replace, where, thisLen, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
             }
@@ -288,21 +340,4 @@ public class HTMLTagHandler implements Html.TagHandler {
         }
     }
 
-    /**
-     * Get last marked position of a specific tag kind (private class)
-     */
-    private static Object getLast(Editable text, Class kind) {
-        Object[] objs = text.getSpans(0, text.length(), kind);
-        if (objs.length == 0) {
-            return null;
-        } else {
-            for (int i = objs.length; i > 0; i--) {
-                if (text.getSpanFlags(objs[i - 1]) == Spannable.SPAN_MARK_MARK) {
-                    return objs[i - 1];
-                }
-            }
-            return null;
-        }
-    }
-
-}
\ No newline at end of file
+}
@@ -0,0 +1,184 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Rewrites the HTML generated by Markdown4j before it is handed to {@link android.text.Html#fromHtml}, in a single
+ * pass over the input:
+ * <ul>
+ * <li>list tags are renamed to the custom tags of {@link HTMLTagHandler}, as the framework handles them badly
+ * (http://stackoverflow.com/questions/38935756/html-tag-handler-not-called-in-android-n-for-ul-li)</li>
+ * <li>with {@link MarkdownRenderer.CodeBlocks#BLOCK}, {@code <pre><code>} becomes a paragraph holding a
+ * {@link HTMLTagHandler#CODE_BLOCK} tag, newlines inside it become breaks and spaces that would be collapsed become
+ * no-break spaces, as the framework drops whitespace</li>
+ * <li>with {@link MarkdownRenderer.CodeBlocks#SPLIT_LINES}, {@code pre} becomes {@code p} and every newline inside
+ * {@code code} is replaced by closing code, break, opening code</li>
+ * </ul>
+ */
+final class HtmlTagRewriter {
+    private static final String CODE_OPEN    = "<code>";
+    private static final String CODE_CLOSE   = "</code>";
+    private static final String CODE_NEWLINE = CODE_CLOSE + "<br />" + CODE_OPEN;
+    private static final String PRE_CODE     = "<pre><code";
+    private static final String BLOCK_CLOSE  = CODE_CLOSE + "</pre>";
+    private static final String BLOCK_START  = "<p><" + HTMLTagHandler.CODE_BLOCK + ">";
+    private static final String BLOCK_END    = "</" + HTMLTagHandler.CODE_BLOCK + "></p>";
+
+    /**
+     * Buffers above this capacity are not kept for reuse.
+     */
+    static final int MAX_REUSED_CAPACITY = 64 * 1024;
+
+    private static final ThreadLocal<StringBuilder> BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder();
+        }
+    };
+
+    private HtmlTagRewriter() {
+    }
+
+    /**
+     * @param codeBlocks how to rewrite code blocks
+     */
+    static String rewrite(final String html, final MarkdownRenderer.CodeBlocks codeBlocks) {
+        if (html == null) {
+            return null;
+        }
+        final boolean splitCodeLines = codeBlocks == MarkdownRenderer.CodeBlocks.SPLIT_LINES;
+        final boolean codeBlock = codeBlocks == MarkdownRenderer.CodeBlocks.BLOCK;
+        StringBuilder out = BUFFER.get();
+        out.setLength(0);
+
+        final int length = html.length();
+        boolean inCode = false;
+        boolean inBlock = false;
+        // whether fromHtml would collapse a space at this point of a code block
+        boolean afterSpace = false;
+        int copied = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = html.charAt(i);
+            final String replacement;
+            int matched;
+            if (inBlock && (c == ' ' || c == '\n')) {
+                final boolean collapsed = afterSpace;
+                afterSpace = true;
+                if (c == '\n') {
+                    // the newline ending the last line is not shown
+                    replacement = html.startsWith(BLOCK_CLOSE, i + 1) ? "" : "<br />";
+                } else if (collapsed) {
+                    replacement = "&nbsp;";
+                } else {
+                    continue;
+                }
+                matched = 1;
+            } else if (c == '<') {
+                if (codeBlock && (matched = matchCodeBlock(html, i)) != 0) {
+                    replacement = BLOCK_START;
+                    inBlock = true;
+                    afterSpace = true;
+                } else if (inBlock && html.startsWith(BLOCK_CLOSE, i)) {
+                    replacement = BLOCK_END;
+                    matched = BLOCK_CLOSE.length();
+                    inBlock = false;
+                } else if (splitCodeLines && html.startsWith("<pre>", i)) {
+                    replacement = "<p>";
+                    matched = 5;
+                } else if (splitCodeLines && html.startsWith("</pre>", i)) {
+                    replacement = "</p>";
+                    matched = 6;
+                } else if (html.startsWith(CODE_OPEN, i)) {
+                    inCode = true;
+                    continue;
+                } else if (html.startsWith(CODE_CLOSE, i)) {
+                    inCode = false;
+                    continue;
+                } else if ((matched = matchTag(html, i, "ul")) != 0) {
+                    replacement = matched == 3 ? "<" + HTMLTagHandler.UL_TAG : "</" + HTMLTagHandler.UL_TAG + ">";
+                } else if ((matched = matchTag(html, i, "ol")) != 0) {
+                    replacement = matched == 3 ? "<" + HTMLTagHandler.OL_TAG : "</" + HTMLTagHandler.OL_TAG + ">";
+                } else if ((matched = matchTag(html, i, "li")) != 0) {
+                    replacement = matched == 3 ? "<" + HTMLTagHandler.LI_TAG : "</" + HTMLTagHandler.LI_TAG + ">";
+                } else {
+                    continue;
+                }
+            } else if (c == '\n' && inCode && splitCodeLines) {
+                replacement = CODE_NEWLINE;
+                matched = 1;
+            } else {
+                afterSpace = false;
+                continue;
+            }
+            if (copied == 0) {
+                // grown only once there is something to rewrite, input without replacements is returned as is
+                out.ensureCapacity(html.length() + html.length() / 8);
+            }
+            out.append(html, copied, i).append(replacement);
+            copied = i + matched;
+            i = copied - 1;
+        }
+        if (copied == 0) {
+            return html;
+        }
+        out.append(html, copied, length);
+
+        final String result = out.toString();
+        if (out.capacity() > MAX_REUSED_CAPACITY) {
+            BUFFER.remove();
+        }
+        return result;
+    }
+
+    /**
+     * Capacity of the calling thread's buffer.
+     */
+    static int bufferCapacity() {
+        return BUFFER.get().capacity();
+    }
+
+    /**
+     * Matches the opening {@code <pre><code>} of a code block at {@code i}. Attributes of the code tag, e.g. the
+     * language of fenced code, are matched as well and dropped.
+     *
+     * @return the length of the match, or 0
+     */
+    private static int matchCodeBlock(final String html, final int i) {
+        final int end = i + PRE_CODE.length();
+        if (!html.startsWith(PRE_CODE, i) || end >= html.length()
+                || (html.charAt(end) != '>' && html.charAt(end) != ' ')) {
+            return 0;
+        }
+        final int close = html.indexOf('>', end);
+        return close == -1 ? 0 : close + 1 - i;
+    }
+
+    /**
+     * Matches the start of an opening tag ({@code <ul}, any attributes are kept) or a complete closing tag
+     * ({@code </ul>}) at {@code i}.
+     *
+     * @return the length of the match, or 0
+     */
+    private static int matchTag(final String html, final int i, final String name) {
+        if (html.startsWith(name, i + 1)) {
+            return 3;
+        }
+        if (html.startsWith(name, i + 2) && html.charAt(i + 1) == '/' && html.startsWith(">", i + 4)) {
+            return 5;
+        }
+        return 0;
+    }
+}
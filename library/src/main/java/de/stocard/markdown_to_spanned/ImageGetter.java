@@ -16,117 +16,193 @@ package de.stocard.markdown_to_spanned;
  */
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.AsyncTask;
 import android.text.Html;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.View;
 
-import java.io.BufferedInputStream;
-import java.io.InputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  */
 public class ImageGetter implements Html.ImageGetter {
-    private final Context ctx;
-    private final View    container;
+    private static final String DRAWABLE_SCHEME = "drawable://";
 
+    private static ImageLoader sharedLoader;
+
+    private final Context     ctx;
+    private final View        container;
+    private final ImageLoader loader;
+
+    /**
+     * Created on the main thread once the first image from the internet loads.
+     */
+    private ContainerUpdater updater;
+
+    /**
+     * Resolved resource ids by source, 0 for sources without a drawable. {@code getIdentifier} is slow.
+     */
+    private final Map<String, Integer> resourceIds = new HashMap<String, Integer>();
+
+    /**
+     * Constant states by resource id, drawables created from them share their bitmap.
+     */
+    private final SparseArray<Drawable.ConstantState> constantStates = new SparseArray<Drawable.ConstantState>();
+
+    /**
+     * Loads images from the internet with a loader shared by all image getters, which keeps them in memory only.
+     */
     public ImageGetter(Context ctx, View container) {
+        this(ctx, container, getSharedLoader());
+    }
+
+    /**
+     * @param loader loads images from the internet, e.g. one with a disk cache
+     */
+    public ImageGetter(Context ctx, View container, ImageLoader loader) {
+        if (loader == null) {
+            throw new IllegalArgumentException("loader == null");
+        }
         this.ctx = ctx;
         this.container = container;
+        this.loader = loader;
+    }
+
+    private static synchronized ImageLoader getSharedLoader() {
+        if (sharedLoader == null) {
+            sharedLoader = new ImageLoader.Builder().build();
+        }
+        return sharedLoader;
     }
 
     @Override
     public Drawable getDrawable(String source) {
-        if (source.startsWith("drawable://")) {
+        if (source.startsWith(DRAWABLE_SCHEME)) {
             return loadImageFromDrawable(source);
         }
+        if (source.startsWith("http://") || source.startsWith("https://")) {
+            return loadImageFromInternet(source);
+        }
 
         return null;
     }
 
     private Drawable loadImageFromDrawable(String source) {
-        int id = ctx.getResources().getIdentifier(source, "drawable", ctx.getPackageName());
+        int id = getResourceId(source);
+        if (id == 0) {
+            // prevent a crash if the resource can't be found
+            return null;
+        }
+        Drawable d = newDrawable(id);
+        if (d != null) {
+            d.setBounds(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
+        }
+        return d;
+    }
+
+    /**
+     * Resolves the source once, later lookups of it are answered from memory, including failed ones.
+     */
+    private synchronized int getResourceId(String source) {
+        Integer cached = resourceIds.get(source);
+        if (cached != null) {
+            return cached;
+        }
+        String name = source.substring(DRAWABLE_SCHEME.length());
+        int id = ctx.getResources().getIdentifier(name, "drawable", ctx.getPackageName());
 
         if (id == 0) {
             // the drawable resource wasn't found in our package, maybe it is a stock android drawable?
-            id = ctx.getResources().getIdentifier(source, "drawable", "android");
+            id = ctx.getResources().getIdentifier(name, "drawable", "android");
         }
 
         if (id == 0) {
-            // prevent a crash if the resource still can't be found
             Log.e(Config.TAG, "source could not be found: " + source);
-            return null;
-        } else {
-            Drawable d = ctx.getResources().getDrawable(id);
-            d.setBounds(0, 0, d.getIntrinsicWidth(), d.getIntrinsicHeight());
-            return d;
         }
+        resourceIds.put(source, id);
+        return id;
     }
 
-    private Drawable loadImageFromInternet(String source) {
-        UrlDrawable urlDrawable = new UrlDrawable();
-
-        // get the actual source
-        ImageGetterAsyncTask asyncTask = new ImageGetterAsyncTask(urlDrawable);
+    @SuppressWarnings("deprecation")
+    private synchronized Drawable newDrawable(int id) {
+        Drawable.ConstantState state = constantStates.get(id);
+        if (state != null) {
+            return state.newDrawable(ctx.getResources());
+        }
+        Drawable d = ctx.getResources().getDrawable(id);
+        if (d != null) {
+            state = d.getConstantState();
+            if (state != null) {
+                constantStates.put(id, state);
+            }
+        }
+        return d;
+    }
 
-        asyncTask.execute(source);
+    private Drawable loadImageFromInternet(String source) {
+        final int width = getContainerWidth();
+        final Bitmap cached = loader.getCached(source, width);
+        if (cached != null) {
+            return toDrawable(cached, width);
+        }
 
         // return reference to URLDrawable which will asynchronously load the image specified in the src tag
+        final UrlDrawable urlDrawable = new UrlDrawable();
+        loader.load(source, width, new ImageLoader.Callback() {
+            @Override
+            public void onLoaded(String url, Bitmap bitmap) {
+                if (bitmap == null) {
+                    return;
+                }
+                Drawable result = toDrawable(bitmap, width);
+                boolean resized = !urlDrawable.getBounds().equals(result.getBounds());
+
+                // set the correct bound according to the loaded image
+                urlDrawable.setBounds(result.getBounds());
+
+                // change the reference of the current drawable to the loaded image
+                urlDrawable.drawable = result;
+
+                // redraw the container, once for all images loaded within a frame
+                if (container != null) {
+                    if (updater == null) {
+                        updater = new ContainerUpdater(container);
+                    }
+                    updater.imageLoaded(resized);
+                }
+            }
+        });
         return urlDrawable;
     }
 
-
-    public class ImageGetterAsyncTask extends AsyncTask<String, Void, Drawable> {
-        UrlDrawable urlDrawable;
-
-        public ImageGetterAsyncTask(UrlDrawable d) {
-            this.urlDrawable = d;
-        }
-
-        @Override
-        protected Drawable doInBackground(String... params) {
-            String source = params[0];
-            return fetchDrawable(source);
-        }
-
-        @Override
-        protected void onPostExecute(Drawable result) {
-            // set the correct bound according to the result from HTTP call
-            urlDrawable.setBounds(0, 0, 0 + result.getIntrinsicWidth(), 0 + result.getIntrinsicHeight());
-
-            // change the reference of the current drawable to the result from the HTTP call
-            urlDrawable.drawable = result;
-
-            // redraw the image by invalidating the container
-            container.invalidate();
+    /**
+     * Width available for images, or 0 if the container is not laid out yet.
+     */
+    private int getContainerWidth() {
+        if (container == null) {
+            return 0;
         }
+        return Math.max(0, container.getWidth() - container.getPaddingLeft() - container.getPaddingRight());
+    }
 
-        /**
-         * Get the Drawable from URL
-         *
-         * @param urlString
-         * @return
-         */
-        public Drawable fetchDrawable(String urlString) {
-            HttpURLConnection urlConnection = null;
-            try {
-                URL url = new URL(urlString);
-                urlConnection = (HttpURLConnection) url.openConnection();
-                InputStream is = new BufferedInputStream(urlConnection.getInputStream());
-                Drawable drawable = Drawable.createFromStream(is, "src");
-                drawable.setBounds(0, 0, 0 + drawable.getIntrinsicWidth(), 0 + drawable.getIntrinsicHeight());
-                return drawable;
-            } catch (Exception e) {
-                return null;
-            } finally {
-                if (urlConnection != null) urlConnection.disconnect();
-            }
+    /**
+     * @param width images are scaled down to fit, 0 to keep their size
+     */
+    private Drawable toDrawable(Bitmap bitmap, int width) {
+        Drawable d = new BitmapDrawable(ctx.getResources(), bitmap);
+        int intrinsicWidth = d.getIntrinsicWidth();
+        int intrinsicHeight = d.getIntrinsicHeight();
+        if (width > 0 && intrinsicWidth > width) {
+            d.setBounds(0, 0, width, (int) ((long) intrinsicHeight * width / intrinsicWidth));
+        } else {
+            d.setBounds(0, 0, intrinsicWidth, intrinsicHeight);
         }
+        return d;
     }
 
     @SuppressWarnings("deprecation")
@@ -0,0 +1,500 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads images from the internet for {@link ImageGetter}.
+ * <p>
+ * Images are downloaded by a small pool of worker threads. Requests for an image that is already being loaded wait for
+ * that download instead of starting another one. Decoded images are kept in memory, bounded by their size in bytes,
+ * and, if configured, their downloaded data in a directory, so they survive the process. Failed loads are not cached
+ * and retried on the next request.
+ * <p>
+ * Images are decoded no wider than needed: the bounds are read first and wide images are subsampled by a power of two
+ * down to the requested width, or the maximum width of the loader, which defaults to the width of the screen.
+ */
+public final class ImageLoader {
+    /**
+     * Notified on the main thread once an image is loaded.
+     */
+    public interface Callback {
+        /**
+         * @param bitmap the image, or null if it could not be loaded
+         */
+        void onLoaded(String url, Bitmap bitmap);
+    }
+
+    private static final String DISK_SUFFIX = ".img";
+
+    private static Handler mainHandler;
+
+    private final Executor                    executor;
+    private final BitmapCache                 memoryCache;
+    private final DiskLruFiles                diskCache;
+    private final int                         connectTimeout;
+    private final int                         readTimeout;
+    private final int                         maxImageBytes;
+    private final int                         maxWidth;
+    private final Bitmap.Config               bitmapConfig;
+    private final Map<String, List<Callback>> inFlight = new HashMap<String, List<Callback>>();
+
+    private ImageLoader(final Builder builder) {
+        executor = builder.executor != null ? builder.executor : newPool(builder.threads);
+        memoryCache = new BitmapCache(builder.memoryCacheSize);
+        diskCache = builder.diskDirectory == null
+                ? null : new DiskLruFiles(builder.diskDirectory, builder.diskCacheSize, DISK_SUFFIX);
+        connectTimeout = builder.connectTimeout;
+        readTimeout = builder.readTimeout;
+        maxImageBytes = builder.maxImageBytes;
+        maxWidth = builder.maxWidth > 0 ? builder.maxWidth : Resources.getSystem().getDisplayMetrics().widthPixels;
+        bitmapConfig = builder.bitmapConfig;
+    }
+
+    private static Executor newPool(final int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "md2s-image-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return the image if it is in memory, decoded for the maximum width of the loader, otherwise null
+     */
+    public Bitmap getCached(final String url) {
+        return getCached(url, 0);
+    }
+
+    /**
+     * @param width the image was requested for, 0 for the maximum width of the loader
+     * @return the image if it is in memory, otherwise null
+     */
+    public Bitmap getCached(final String url, final int width) {
+        return memoryCache.get(key(url, targetWidth(width)));
+    }
+
+    /**
+     * Loads the image for the maximum width of the loader, see {@link #load(String, int, Callback)}.
+     */
+    public void load(final String url, final Callback callback) {
+        load(url, 0, callback);
+    }
+
+    /**
+     * Loads the image and notifies the callback on the main thread, right away if it is in memory.
+     *
+     * @param width the image is shown at, e.g. of the text view, in pixels. Wider images are decoded at a lower
+     *              resolution, but at least this width. 0 or more than the maximum width of the loader decode for its
+     *              maximum width.
+     */
+    public void load(final String url, final int width, final Callback callback) {
+        if (url == null) {
+            throw new IllegalArgumentException("url == null");
+        }
+        if (callback == null) {
+            throw new IllegalArgumentException("callback == null");
+        }
+        final int target = targetWidth(width);
+        final String key = key(url, target);
+        final Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            deliver(url, cached, callback);
+            return;
+        }
+        synchronized (inFlight) {
+            final List<Callback> waiting = inFlight.get(key);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            final List<Callback> callbacks = new ArrayList<Callback>(2);
+            callbacks.add(callback);
+            inFlight.put(key, callbacks);
+        }
+        final Runnable download = new Runnable() {
+            @Override
+            public void run() {
+                Bitmap bitmap = null;
+                try {
+                    bitmap = fetch(url, target);
+                } catch (RuntimeException e) {
+                    Log.w(Config.TAG, "could not load " + url, e);
+                } catch (OutOfMemoryError e) {
+                    Log.w(Config.TAG, "not enough memory to decode " + url);
+                } finally {
+                    // whatever else is thrown, the image must not stay in flight for later requests
+                    if (bitmap != null) {
+                        memoryCache.put(key, bitmap);
+                    }
+                    final List<Callback> callbacks;
+                    synchronized (inFlight) {
+                        callbacks = inFlight.remove(key);
+                    }
+                    for (Callback waiting : callbacks) {
+                        deliver(url, bitmap, waiting);
+                    }
+                }
+            }
+        };
+        try {
+            executor.execute(download);
+        } catch (RejectedExecutionException e) {
+            // e.g. the executor was shut down, the callbacks waiting for the download would never be notified
+            Log.w(Config.TAG, "could not load " + url, e);
+            final List<Callback> callbacks;
+            synchronized (inFlight) {
+                callbacks = inFlight.remove(key);
+            }
+            for (Callback waiting : callbacks) {
+                deliver(url, null, waiting);
+            }
+        }
+    }
+
+    private int targetWidth(final int width) {
+        return width > 0 && width < maxWidth ? width : maxWidth;
+    }
+
+    /**
+     * Images are cached per width they are decoded for, a text shown at several widths loads the image once per width.
+     */
+    private static String key(final String url, final int width) {
+        return width + " " + url;
+    }
+
+    private static void deliver(final String url, final Bitmap bitmap, final Callback callback) {
+        getMainHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onLoaded(url, bitmap);
+            }
+        });
+    }
+
+    /**
+     * Loads the image from disk or the internet, on a worker thread.
+     */
+    private Bitmap fetch(final String url, final int width) {
+        final String name = diskCache == null ? null : DiskLruFiles.hash(url);
+        if (diskCache != null) {
+            final ByteBuffer stored = diskCache.read(name);
+            if (stored != null) {
+                final byte[] data = new byte[stored.remaining()];
+                stored.get(data);
+                final Bitmap bitmap = decode(data, width, bitmapConfig);
+                if (bitmap != null) {
+                    return bitmap;
+                }
+                diskCache.discard(name);
+            }
+        }
+        final byte[] data = download(url);
+        if (data == null) {
+            return null;
+        }
+        final Bitmap bitmap = decode(data, width, bitmapConfig);
+        if (bitmap == null) {
+            Log.w(Config.TAG, "could not decode " + url);
+        } else if (diskCache != null) {
+            diskCache.write(name, ByteBuffer.wrap(data));
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes the image subsampled to about the width, reading its bounds first.
+     *
+     * @param config of the bitmap, or null for the platform default
+     */
+    static Bitmap decode(final byte[] data, final int width, final Bitmap.Config config) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        options.inJustDecodeBounds = false;
+        // unknown bounds are left to the decoder, which fails on data that is no image
+        options.inSampleSize = options.outWidth > 0 ? calculateInSampleSize(options.outWidth, width) : 1;
+        if (config != null) {
+            options.inPreferredConfig = config;
+        }
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * @return the largest power of two that keeps an image of the width at least the requested width wide
+     */
+    static int calculateInSampleSize(final int width, final int requestedWidth) {
+        int sampleSize = 1;
+        if (requestedWidth <= 0) {
+            return sampleSize;
+        }
+        while (width / (sampleSize * 2) >= requestedWidth) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return the response body, or null if the request failed or the body is too large
+     */
+    private byte[] download(final String url) {
+        HttpURLConnection connection = null;
+        InputStream in = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(connectTimeout);
+            connection.setReadTimeout(readTimeout);
+            final int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                Log.w(Config.TAG, "could not load " + url + ": HTTP " + code);
+                // only closed, the connection is disconnected either way
+                in = connection.getErrorStream();
+                return null;
+            }
+            final int length = connection.getContentLength();
+            if (length > maxImageBytes) {
+                Log.w(Config.TAG, "not loading " + url + ", " + length + " bytes are too large");
+                return null;
+            }
+            in = connection.getInputStream();
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(length > 0 ? length : 8192);
+            final byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                bytes.write(chunk, 0, read);
+                if (bytes.size() > maxImageBytes) {
+                    Log.w(Config.TAG, "not loading " + url + ", it is too large");
+                    return null;
+                }
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            Log.w(Config.TAG, "could not load " + url + ": " + e.getMessage());
+            return null;
+        } catch (ClassCastException e) {
+            Log.w(Config.TAG, "not an HTTP url: " + url);
+            return null;
+        } finally {
+            closeQuietly(in);
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private static void closeQuietly(final Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        return mainHandler;
+    }
+
+    /**
+     * Drops all images from memory, and from disk if there is a disk cache.
+     */
+    public void evictAll() {
+        memoryCache.evictAll();
+        if (diskCache != null) {
+            diskCache.evictAll();
+        }
+    }
+
+    /**
+     * Summed size of the images in memory, in bytes.
+     */
+    public int memoryCacheSize() {
+        return memoryCache.weight();
+    }
+
+    public int hitCount() {
+        return memoryCache.hitCount();
+    }
+
+    public int missCount() {
+        return memoryCache.missCount();
+    }
+
+    @Override
+    public String toString() {
+        return "ImageLoader[memory=" + memoryCache.weight() + "/" + memoryCache.maxWeight() + ", hits="
+                + hitCount() + ", misses=" + missCount() + (diskCache == null ? "" : ", disk=" + diskCache.size()
+                + "/" + diskCache.maxSize()) + "]";
+    }
+
+    private static final class BitmapCache extends WeightedLruCache<String, Bitmap> {
+        BitmapCache(final int maxWeight) {
+            super(maxWeight);
+        }
+
+        @Override
+        protected int weigh(final String key, final Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+    }
+
+    public static final class Builder {
+        private Executor      executor;
+        private int           threads         = 2;
+        private int           memoryCacheSize = (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8);
+        private File          diskDirectory;
+        private long          diskCacheSize;
+        private int           connectTimeout  = 15000;
+        private int           readTimeout     = 15000;
+        private int           maxImageBytes   = 8 * 1024 * 1024;
+        private int           maxWidth;
+        private Bitmap.Config bitmapConfig;
+
+        /**
+         * Number of worker threads, 2 by default. Ignored if an executor is set.
+         */
+        public Builder threads(final int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads <= 0");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Runs the downloads on the executor instead of an own pool of worker threads.
+         */
+        public Builder executor(final Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor == null");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Maximum summed size of the images kept in memory, in bytes. An eighth of the heap by default.
+         */
+        public Builder memoryCacheSize(final int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes <= 0");
+            }
+            memoryCacheSize = bytes;
+            return this;
+        }
+
+        /**
+         * Keeps the downloaded images in the directory, e.g. in {@code Context.getCacheDir()}. None by default.
+         *
+         * @param maxSize maximum summed size of all files, in bytes
+         */
+        public Builder diskCache(final File directory, final long maxSize) {
+            if (directory == null) {
+                throw new IllegalArgumentException("directory == null");
+            }
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("maxSize <= 0");
+            }
+            diskDirectory = directory;
+            diskCacheSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Connect and read timeouts of the downloads, 15 seconds each by default.
+         */
+        public Builder timeouts(final int connectMillis, final int readMillis) {
+            if (connectMillis < 0 || readMillis < 0) {
+                throw new IllegalArgumentException("timeout < 0");
+            }
+            connectTimeout = connectMillis;
+            readTimeout = readMillis;
+            return this;
+        }
+
+        /**
+         * Images with more data are not loaded, 8 MB by default.
+         */
+        public Builder maxImageBytes(final int bytes) {
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes <= 0");
+            }
+            maxImageBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Images are decoded no wider than needed for this width, in pixels. The width of the screen by default.
+         */
+        public Builder maxWidth(final int pixels) {
+            if (pixels <= 0) {
+                throw new IllegalArgumentException("pixels <= 0");
+            }
+            maxWidth = pixels;
+            return this;
+        }
+
+        /**
+         * Config the images are decoded with, e.g. {@link Bitmap.Config#RGB_565} to halve the memory of opaque
+         * images. The platform default by default.
+         */
+        public Builder bitmapConfig(final Bitmap.Config config) {
+            if (config == null) {
+                throw new IllegalArgumentException("config == null");
+            }
+            bitmapConfig = config;
+            return this;
+        }
+
+        public ImageLoader build() {
+            return new ImageLoader(this);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Editable;
+import android.text.Html;
+import android.text.SpannableStringBuilder;
+import android.text.style.CharacterStyle;
+import android.text.style.ParagraphStyle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders a text that is edited over and over, e.g. for a live preview of an editor, re-rendering only the blocks
+ * that changed since the previous update.
+ * <p>
+ * Every update splits the whole text into its top-level blocks (paragraphs, headers, lists, code, quotes), which is
+ * cheap, and compares them with the blocks of the previous update. Only blocks that were added or changed are
+ * rendered; their text and spans are spliced into the {@link Editable} holding the previous result. If link
+ * reference definitions change, all blocks are rendered again.
+ * <p>
+ * The result equals what {@link Markdown#fromMarkdown(String, Markdown.Engine)} produces with
+ * {@link Markdown.Engine#DIRECT}. Not thread-safe.
+ * <pre>
+ * preview.setText("", TextView.BufferType.EDITABLE);
+ * renderer.update(markdown, preview.getEditableText());
+ * </pre>
+ */
+public final class IncrementalRenderer {
+
+    private final DirectRenderer renderer;
+
+    /**
+     * The rendered blocks including the line breaks separating them, before trimming.
+     */
+    private final SpannableStringBuilder rendered = new SpannableStringBuilder();
+    private final List<Entry>            entries  = new ArrayList<Entry>();
+    private Map<String, String[]>        references;
+    private InlineRenderer               inline;
+
+    /**
+     * Range of {@link #rendered} the target holds after trimming.
+     */
+    private int visibleStart;
+    private int visibleEnd;
+
+    /**
+     * Number of blocks rendered by the last update.
+     */
+    int lastRenderedBlocks;
+
+    public IncrementalRenderer() {
+        this(null);
+    }
+
+    /**
+     * @param imageGetter loads the images of the rendered text, e.g. an {@link ImageGetter}. Without, images are dropped.
+     */
+    public IncrementalRenderer(final Html.ImageGetter imageGetter) {
+        renderer = new DirectRenderer(imageGetter);
+    }
+
+    /**
+     * A rendered top-level block: {@code separator} line breaks followed by {@code length} characters of content,
+     * starting at {@code start} of {@link #rendered}.
+     */
+    private static final class Entry {
+        final BlockSplitter.Block block;
+        int                       start;
+        int                       separator;
+        int                       length;
+
+        Entry(final BlockSplitter.Block block) {
+            this.block = block;
+        }
+
+        int end() {
+            return start + separator + length;
+        }
+    }
+
+    /**
+     * Renders the Markdown into the target, which is expected to hold the result of the previous update. A target
+     * holding anything else is replaced entirely.
+     */
+    public void update(final String markdown, final Editable target) {
+        final List<BlockSplitter.Block> blocks = BlockSplitter.split(markdown == null ? "" : markdown);
+        final Map<String, String[]> newReferences = DirectRenderer.collectReferences(blocks);
+
+        int prefix = 0;
+        int suffix = 0;
+        if (inline != null && sameReferences(references, newReferences)) {
+            final int common = Math.min(entries.size(), blocks.size());
+            while (prefix < common && entries.get(prefix).block.sameSource(blocks.get(prefix))) {
+                prefix++;
+            }
+            while (suffix < common - prefix && entries.get(entries.size() - 1 - suffix).block
+                    .sameSource(blocks.get(blocks.size() - 1 - suffix))) {
+                suffix++;
+            }
+        } else {
+            references = newReferences;
+            inline = renderer.newInlineRenderer(references);
+        }
+        lastRenderedBlocks = 0;
+
+        final int regionStart = prefix < entries.size() ? entries.get(prefix).start : rendered.length();
+        int regionEnd = regionStart;
+        final SpannableStringBuilder replacement = new SpannableStringBuilder();
+        final List<Entry> replaced = new ArrayList<Entry>();
+
+        for (int i = prefix; i < blocks.size() - suffix; i++) {
+            replaced.add(render(new Entry(blocks.get(i)), regionStart, replacement));
+        }
+        for (int i = prefix; i < entries.size() - suffix; i++) {
+            regionEnd = entries.get(i).end();
+        }
+        // a block's separation depends on how the preceding text ends, so unchanged blocks may need a new one
+        int next = entries.size() - suffix;
+        while (next < entries.size()) {
+            final Entry entry = entries.get(next);
+            final int separator = separatorLength(regionStart, replacement, entry.block);
+            if (separator == entry.separator && endsIndependently(entry)) {
+                break;
+            }
+            regionEnd = entry.end();
+            replaced.add(render(entry, regionStart, replacement));
+            next++;
+        }
+
+        removeStyles(rendered, regionStart, regionEnd);
+        rendered.replace(regionStart, regionEnd, replacement);
+        final int delta = replacement.length() - (regionEnd - regionStart);
+        for (int i = next; i < entries.size(); i++) {
+            entries.get(i).start += delta;
+        }
+        entries.subList(prefix, next).clear();
+        entries.addAll(prefix, replaced);
+
+        splice(target, regionStart, regionEnd, regionStart + replacement.length());
+    }
+
+    /**
+     * Renders the block of the entry and appends it, preceded by its separator, to the replacement that goes to
+     * {@code regionStart}.
+     */
+    private Entry render(final Entry entry, final int regionStart, final SpannableStringBuilder replacement) {
+        entry.start = regionStart + replacement.length();
+        entry.separator = separatorLength(regionStart, replacement, entry.block);
+        for (int i = 0; i < entry.separator; i++) {
+            replacement.append('\n');
+        }
+        if (DirectRenderer.isRendered(entry.block)) {
+            final SpannableStringBuilder content = renderer.renderContent(entry.block, inline);
+            entry.length = content.length();
+            replacement.append(content);
+            lastRenderedBlocks++;
+        } else {
+            entry.length = 0;
+        }
+        return entry;
+    }
+
+    /**
+     * Number of line breaks the block is separated with from the text preceding it, the head of {@link #rendered}
+     * up to {@code headEnd} followed by {@code tail}. Mirrors {@link DirectRenderer}: rendered blocks are separated
+     * by an empty line from any preceding text.
+     */
+    private int separatorLength(final int headEnd, final CharSequence tail, final BlockSplitter.Block block) {
+        if (!DirectRenderer.isRendered(block) || headEnd + tail.length() == 0) {
+            return 0;
+        }
+        int newlines = 0;
+        for (int i = tail.length() - 1; i >= 0 && newlines < 2 && tail.charAt(i) == '\n'; i--) {
+            newlines++;
+        }
+        if (newlines == tail.length()) {
+            for (int i = headEnd - 1; i >= 0 && newlines < 2 && rendered.charAt(i) == '\n'; i--) {
+                newlines++;
+            }
+        }
+        return 2 - newlines;
+    }
+
+    /**
+     * Whether the separation of the blocks following the entry depends on the entry alone, rather than on the text
+     * preceding it.
+     */
+    private boolean endsIndependently(final Entry entry) {
+        return entry.length >= 2 || (entry.length == 1 && rendered.charAt(entry.end() - 1) != '\n');
+    }
+
+    /**
+     * Brings the target up to date after {@code [regionStart, oldRegionEnd)} of {@link #rendered} was replaced by
+     * {@code [regionStart, newRegionEnd)}.
+     */
+    private void splice(final Editable target, final int regionStart, final int oldRegionEnd, final int newRegionEnd) {
+        final int oldVisibleStart = visibleStart;
+        final int oldVisibleEnd = visibleEnd;
+        final int oldLength = rendered.length() - (newRegionEnd - oldRegionEnd);
+
+        // trim, just like Markdown.trim does for a complete render
+        visibleStart = 0;
+        visibleEnd = rendered.length();
+        while (visibleStart < visibleEnd && Character.isWhitespace(rendered.charAt(visibleStart))) {
+            visibleStart++;
+        }
+        while (visibleEnd > visibleStart && Character.isWhitespace(rendered.charAt(visibleEnd - 1))) {
+            visibleEnd--;
+        }
+
+        final boolean inPlace = target.length() == oldVisibleEnd - oldVisibleStart
+                && visibleStart == oldVisibleStart && regionStart >= visibleStart
+                && oldRegionEnd <= oldVisibleEnd && newRegionEnd <= visibleEnd
+                && oldLength - oldVisibleEnd == rendered.length() - visibleEnd;
+        if (inPlace) {
+            final int start = regionStart - visibleStart;
+            final int end = oldRegionEnd - visibleStart;
+            removeStyles(target, start, end);
+            if (newRegionEnd > regionStart) {
+                target.replace(start, end, rendered, regionStart, newRegionEnd);
+            } else if (end > start) {
+                // replacing with an empty range would copy the spans touching it
+                target.delete(start, end);
+            }
+        } else {
+            removeStyles(target, 0, target.length());
+            target.replace(0, target.length(), rendered, visibleStart, visibleEnd);
+        }
+    }
+
+    /**
+     * Removes the styles within the range that is about to be replaced. Left to the target, whether they are dropped
+     * depends on the API level. Spans of the view owning the target, e.g. the selection, are kept.
+     */
+    private static void removeStyles(final Editable target, final int start, final int end) {
+        for (Object span : target.getSpans(start, end, Object.class)) {
+            if ((span instanceof CharacterStyle || span instanceof ParagraphStyle)
+                    && target.getSpanStart(span) >= start && target.getSpanEnd(span) <= end) {
+                target.removeSpan(span);
+            }
+        }
+    }
+
+    private static boolean sameReferences(final Map<String, String[]> a, final Map<String, String[]> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (Map.Entry<String, String[]> entry : a.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), b.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,409 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.text.Html;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ImageSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.URLSpan;
+
+import java.util.Map;
+
+/**
+ * Renders the inline content of a block (emphasis, code, links, ...) straight into a {@link SpannableStringBuilder}.
+ * <p>
+ * Spans are set when their content is complete, i.e. in the same order {@link Html#fromHtml} sets them for the
+ * corresponding closing tags.
+ */
+final class InlineRenderer {
+    private static final String ESCAPABLE = "\\`*_{}[]()#+-.!~<>";
+
+    private final Map<String, String[]> references;
+    private final Html.ImageGetter      imageGetter;
+
+    /**
+     * @param references  link references by lower case id, each as {@code {id, url, title}}
+     * @param imageGetter used to resolve images, may be null in which case images are dropped
+     */
+    InlineRenderer(final Map<String, String[]> references, final Html.ImageGetter imageGetter) {
+        this.references = references;
+        this.imageGetter = imageGetter;
+    }
+
+    void render(final String text, final SpannableStringBuilder out) {
+        render(text, 0, text.length(), out, 0);
+    }
+
+    /**
+     * @param nesting number of emphases and links the text is nested in, see {@link DirectRenderer#MAX_NESTING}
+     */
+    private void render(final String s, final int from, final int to, final SpannableStringBuilder out,
+                        final int nesting) {
+        int i = from;
+        while (i < to) {
+            final char c = s.charAt(i);
+            int next = -1;
+            switch (c) {
+                case '\\':
+                    if (i + 1 < to && ESCAPABLE.indexOf(s.charAt(i + 1)) != -1) {
+                        out.append(s.charAt(i + 1));
+                        next = i + 2;
+                    }
+                    break;
+                case '`':
+                    next = code(s, i, to, out);
+                    break;
+                case '*':
+                case '_':
+                    next = emphasis(s, i, to, out, nesting);
+                    break;
+                case '~':
+                    next = strike(s, i, to, out, nesting);
+                    break;
+                case '[':
+                    next = link(s, i, to, out, nesting);
+                    break;
+                case '!':
+                    if (i + 1 < to && s.charAt(i + 1) == '[') {
+                        next = image(s, i, to, out);
+                    }
+                    break;
+                case '<':
+                    next = autoLink(s, i, to, out);
+                    break;
+                case '&':
+                    next = entity(s, i, to, out);
+                    break;
+                case '\n':
+                    next = lineBreak(s, i, to, out);
+                    break;
+                case ' ':
+                case '\t':
+                    next = whitespace(s, i, to, out);
+                    break;
+                default:
+                    break;
+            }
+            if (next == -1) {
+                out.append(c);
+                i++;
+            } else {
+                i = next;
+            }
+        }
+    }
+
+    private int code(final String s, final int start, final int to, final SpannableStringBuilder out) {
+        final int ticks = BlockSplitter.runLength(s, start, '`');
+        int search = start + ticks;
+        while (search < to) {
+            final int close = s.indexOf('`', search);
+            if (close == -1 || close >= to) {
+                return -1;
+            }
+            final int run = BlockSplitter.runLength(s, close, '`');
+            if (run == ticks) {
+                final String content = s.substring(start + ticks, close).trim();
+                final int where = out.length();
+                out.append(content);
+                setSpan(out, new TypefaceSpan("monospace"), where);
+                return close + ticks;
+            }
+            search = close + run;
+        }
+        return -1;
+    }
+
+    private int emphasis(final String s, final int start, final int to, final SpannableStringBuilder out,
+                         final int nesting) {
+        final char marker = s.charAt(start);
+        if (nesting >= DirectRenderer.MAX_NESTING
+                || (marker == '_' && start > 0 && Character.isLetterOrDigit(s.charAt(start - 1)))) {
+            return -1;
+        }
+        if (start + 1 < to && s.charAt(start + 1) == marker) {
+            final int close = findClosing(s, start + 2, to, marker, 2);
+            if (close != -1) {
+                final int where = out.length();
+                render(s, start + 2, close, out, nesting + 1);
+                setSpan(out, new StyleSpan(Typeface.BOLD), where);
+                return close + 2;
+            }
+        }
+        final int close = findClosing(s, start + 1, to, marker, 1);
+        if (close != -1) {
+            final int where = out.length();
+            render(s, start + 1, close, out, nesting + 1);
+            setSpan(out, new StyleSpan(Typeface.ITALIC), where);
+            return close + 1;
+        }
+        return -1;
+    }
+
+    private int strike(final String s, final int start, final int to, final SpannableStringBuilder out,
+                       final int nesting) {
+        if (nesting >= DirectRenderer.MAX_NESTING || start + 1 >= to || s.charAt(start + 1) != '~') {
+            return -1;
+        }
+        final int close = findClosing(s, start + 2, to, '~', 2);
+        if (close == -1) {
+            return -1;
+        }
+        final int where = out.length();
+        render(s, start + 2, close, out, nesting + 1);
+        setSpan(out, new StrikethroughSpan(), where);
+        return close + 2;
+    }
+
+    /**
+     * Finds the closing delimiter run of exactly {@code length} markers, skipping code spans and escapes.
+     */
+    private static int findClosing(final String s, final int from, final int to, final char marker, final int length) {
+        if (from >= to || Character.isWhitespace(s.charAt(from))) {
+            return -1;
+        }
+        int i = from;
+        while (i < to) {
+            final char c = s.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '`') {
+                final int ticks = BlockSplitter.runLength(s, i, '`');
+                final int close = s.indexOf(s.substring(i, i + ticks), i + ticks);
+                i = close == -1 || close >= to ? i + ticks : close + ticks;
+                continue;
+            }
+            if (c == marker) {
+                final int run = Math.min(BlockSplitter.runLength(s, i, marker), to - i);
+                if (run >= length && i > from && !Character.isWhitespace(s.charAt(i - 1))
+                        && (marker != '_' || i + run >= to || !Character.isLetterOrDigit(s.charAt(i + run)))) {
+                    if (run == length) {
+                        return i;
+                    }
+                    if (run == 3) {
+                        // "***" closes a nested emphasis first, the remaining markers close ours
+                        return i + 3 - length;
+                    }
+                }
+                i += run;
+                continue;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private int link(final String s, final int start, final int to, final SpannableStringBuilder out,
+                     final int nesting) {
+        if (nesting >= DirectRenderer.MAX_NESTING) {
+            return -1;
+        }
+        final int textEnd = findClosingBracket(s, start, to);
+        if (textEnd == -1) {
+            return -1;
+        }
+        final String[] target = new String[1];
+        final int next = linkTarget(s, start, textEnd, to, target);
+        if (next == -1) {
+            return -1;
+        }
+        final int where = out.length();
+        render(s, start + 1, textEnd, out, nesting + 1);
+        setSpan(out, new URLSpan(target[0]), where);
+        return next;
+    }
+
+    private int image(final String s, final int start, final int to, final SpannableStringBuilder out) {
+        final int textEnd = findClosingBracket(s, start + 1, to);
+        if (textEnd == -1) {
+            return -1;
+        }
+        final String[] target = new String[1];
+        final int next = linkTarget(s, start + 1, textEnd, to, target);
+        if (next == -1) {
+            return -1;
+        }
+        final Drawable drawable = imageGetter == null ? null : imageGetter.getDrawable(target[0]);
+        if (drawable != null) {
+            final int where = out.length();
+            out.append('\uFFFC');
+            setSpan(out, new ImageSpan(drawable, target[0]), where);
+        }
+        return next;
+    }
+
+    /**
+     * Resolves the target of the link whose text ends at {@code textEnd}, either inline {@code (url "title")},
+     * by reference {@code [id]} or by its own text as id.
+     *
+     * @return index after the link, or -1 if this is no link
+     */
+    private int linkTarget(final String s, final int start, final int textEnd, final int to, final String[] target) {
+        int i = textEnd + 1;
+        if (i < to && s.charAt(i) == '(') {
+            int depth = 0;
+            int close = -1;
+            for (int j = i + 1; j < to && close == -1; j++) {
+                final char c = s.charAt(j);
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')') {
+                    if (depth == 0) {
+                        close = j;
+                    }
+                    depth--;
+                }
+            }
+            if (close == -1) {
+                return -1;
+            }
+            String url = s.substring(i + 1, close).trim();
+            final int space = indexOfWhitespace(url);
+            if (space != -1) {
+                url = url.substring(0, space);
+            }
+            if (url.startsWith("<") && url.endsWith(">")) {
+                url = url.substring(1, url.length() - 1);
+            }
+            target[0] = url;
+            return close + 1;
+        }
+        String id = s.substring(start + 1, textEnd);
+        int next = textEnd + 1;
+        if (i < to && s.charAt(i) == ' ' && i + 1 < to && s.charAt(i + 1) == '[') {
+            i++;
+        }
+        if (i < to && s.charAt(i) == '[') {
+            final int idEnd = s.indexOf(']', i);
+            if (idEnd == -1 || idEnd >= to) {
+                return -1;
+            }
+            if (idEnd > i + 1) {
+                id = s.substring(i + 1, idEnd);
+            }
+            next = idEnd + 1;
+        }
+        final String[] reference = references.get(id.toLowerCase());
+        if (reference == null) {
+            return -1;
+        }
+        target[0] = reference[1];
+        return next;
+    }
+
+    private static int findClosingBracket(final String s, final int start, final int to) {
+        int depth = 0;
+        for (int i = start + 1; i < to; i++) {
+            final char c = s.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                if (depth == 0) {
+                    return i;
+                }
+                depth--;
+            }
+        }
+        return -1;
+    }
+
+    private int autoLink(final String s, final int start, final int to, final SpannableStringBuilder out) {
+        final int close = s.indexOf('>', start);
+        if (close == -1 || close >= to) {
+            return -1;
+        }
+        final String url = s.substring(start + 1, close);
+        if (indexOfWhitespace(url) != -1 || !(url.startsWith("http://") || url.startsWith("https://")
+                || url.startsWith("ftp://") || url.startsWith("mailto:"))) {
+            return -1;
+        }
+        final int where = out.length();
+        out.append(url);
+        setSpan(out, new URLSpan(url), where);
+        return close + 1;
+    }
+
+    private static int entity(final String s, final int start, final int to, final SpannableStringBuilder out) {
+        final int end = s.indexOf(';', start);
+        if (end == -1 || end >= to || end - start > 10) {
+            return -1;
+        }
+        final int codePoint = HtmlEntities.codePoint(s.substring(start + 1, end));
+        if (codePoint == -1) {
+            return -1;
+        }
+        out.append(new String(Character.toChars(codePoint)));
+        return end + 1;
+    }
+
+    /**
+     * Newlines inside a paragraph are real line breaks, surrounding whitespace is dropped.
+     */
+    private static int lineBreak(final String s, final int start, final int to, final SpannableStringBuilder out) {
+        int len = out.length();
+        while (len > 0 && out.charAt(len - 1) == ' ') {
+            len--;
+        }
+        out.delete(len, out.length());
+        out.append('\n');
+        int i = start + 1;
+        while (i < to && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Collapses runs of whitespace into a single space, just like {@link Html#fromHtml} does.
+     */
+    private static int whitespace(final String s, final int start, final int to, final SpannableStringBuilder out) {
+        int i = start;
+        while (i < to && (s.charAt(i) == ' ' || s.charAt(i) == '\t')) {
+            i++;
+        }
+        if (i < to && s.charAt(i) == '\n') {
+            return i;
+        }
+        out.append(' ');
+        return i;
+    }
+
+    private static int indexOfWhitespace(final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void setSpan(final SpannableStringBuilder out, final Object span, final int where) {
+        final int len = out.length();
+        if (where != len) {
+            out.setSpan(span, where, len, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Typeface;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * LRU cache of laid out Markdown, bounded by the length of the laid out texts, for {@link LayoutView}.
+ * <p>
+ * Line breaking and measuring a long text takes long, and a {@code TextView} does it on the main thread every time a
+ * text is set. Layouts are built off the main thread with {@link #precompute} instead, and kept by the Markdown, the
+ * options of its renderer, the width and the {@link Style}, so showing the same text at the same width again skips
+ * measuring altogether. The cache is thread-safe.
+ */
+public final class LayoutCache {
+    /**
+     * Notified on the main thread once a layout is built.
+     */
+    public interface Callback {
+        /**
+         * @param layout the laid out text, or null if the Markdown could not be rendered
+         */
+        void onLayout(Layout layout);
+    }
+
+    private static Handler mainHandler;
+
+    private final WeightedLruCache<Key, Layout> cache;
+
+    /**
+     * @param maxWeight maximum summed length of all laid out texts, in characters
+     */
+    public LayoutCache(final int maxWeight) {
+        cache = new WeightedLruCache<Key, Layout>(maxWeight) {
+            @Override
+            protected int weigh(final Key key, final Layout value) {
+                return value.getText().length() + 1;
+            }
+        };
+    }
+
+    /**
+     * @return the cached layout, or null if there is none
+     */
+    public Layout getCached(final MarkdownRenderer renderer, final String markdown, final int width,
+                            final Style style) {
+        return cache.get(new Key(renderer.getOptions(), markdown, width, style));
+    }
+
+    /**
+     * Returns the cached layout, or renders and lays out the text on the calling thread. Call it off the main thread.
+     *
+     * @param width of the text, without padding
+     * @return the laid out text, or null if the Markdown could not be rendered
+     */
+    public Layout get(final MarkdownRenderer renderer, final String markdown, final int width, final Style style) {
+        if (width <= 0) {
+            throw new IllegalArgumentException("width <= 0");
+        }
+        final Key key = new Key(renderer.getOptions(), markdown, width, style);
+        final Layout cached = cache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        final Spanned spanned = renderer.render(markdown);
+        if (spanned == null) {
+            return null;
+        }
+        final Layout layout = style.layout(spanned, width);
+        cache.put(key, layout);
+        return layout;
+    }
+
+    /**
+     * Builds the layout on the renderer's executor, see {@link #get}, and notifies the callback on the main thread.
+     * A cached layout is delivered right away. Must be called on the main thread.
+     */
+    public void precompute(final MarkdownRenderer renderer, final String markdown, final int width,
+                           final Style style, final Callback callback) {
+        final Layout cached = getCached(renderer, markdown, width, style);
+        if (cached != null) {
+            callback.onLayout(cached);
+            return;
+        }
+        final Runnable build = new Runnable() {
+            @Override
+            public void run() {
+                final Layout layout = get(renderer, markdown, width, style);
+                getMainHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onLayout(layout);
+                    }
+                });
+            }
+        };
+        try {
+            renderer.getExecutor().execute(build);
+        } catch (RejectedExecutionException e) {
+            callback.onLayout(get(renderer, markdown, width, style));
+        }
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        return mainHandler;
+    }
+
+    /**
+     * Drops all cached layouts.
+     */
+    public void evictAll() {
+        cache.evictAll();
+    }
+
+    /**
+     * Summed length of all cached layouts.
+     */
+    public int weight() {
+        return cache.weight();
+    }
+
+    public int maxWeight() {
+        return cache.maxWeight();
+    }
+
+    public int hitCount() {
+        return cache.hitCount();
+    }
+
+    public int missCount() {
+        return cache.missCount();
+    }
+
+    public int evictionCount() {
+        return cache.evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "LayoutCache[weight=" + weight() + "/" + maxWeight() + ", hits=" + hitCount() + ", misses="
+                + missCount() + ", evictions=" + evictionCount() + "]";
+    }
+
+    /**
+     * How texts are laid out: the text appearance of their paint and the line spacing. Takes a copy of the paint, so
+     * later changes to it don't affect the style. Styles with the same appearance are equal.
+     */
+    public static final class Style {
+        private final TextPaint        paint;
+        private final float            spacingMultiplier;
+        private final float            spacingExtra;
+        private final boolean          includeFontPadding;
+        private final Layout.Alignment alignment;
+
+        /**
+         * A style with the line spacing of a {@code TextView} without line spacing attributes.
+         */
+        public Style(final TextPaint paint) {
+            this(paint, 1f, 0f, true, Layout.Alignment.ALIGN_NORMAL);
+        }
+
+        /**
+         * @param paint e.g. {@code TextView.getPaint()}
+         */
+        public Style(final TextPaint paint, final float spacingMultiplier, final float spacingExtra,
+                     final boolean includeFontPadding, final Layout.Alignment alignment) {
+            if (paint == null) {
+                throw new IllegalArgumentException("paint == null");
+            }
+            if (alignment == null) {
+                throw new IllegalArgumentException("alignment == null");
+            }
+            this.paint = new TextPaint();
+            this.paint.set(paint);
+            this.spacingMultiplier = spacingMultiplier;
+            this.spacingExtra = spacingExtra;
+            this.includeFontPadding = includeFontPadding;
+            this.alignment = alignment;
+        }
+
+        @SuppressWarnings("deprecation")
+        Layout layout(final Spanned text, final int width) {
+            return new StaticLayout(text, paint, width, alignment, spacingMultiplier, spacingExtra,
+                    includeFontPadding);
+        }
+
+        private static float letterSpacing(final TextPaint paint) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                return paint.getLetterSpacing();
+            }
+            return 0;
+        }
+
+        /**
+         * Compares what else breaks lines differently, where the platform supports it.
+         */
+        private static boolean sameTextFeatures(final TextPaint paint, final TextPaint other) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                    && !equal(paint.getTextLocale(), other.getTextLocale())) {
+                return false;
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                return equal(paint.getFontFeatureSettings(), other.getFontFeatureSettings())
+                        && paint.isElegantTextHeight() == other.isElegantTextHeight();
+            }
+            return true;
+        }
+
+        private static boolean equal(final Object a, final Object b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Style)) {
+                return false;
+            }
+            final Style other = (Style) o;
+            final Typeface typeface = paint.getTypeface();
+            final Typeface otherTypeface = other.paint.getTypeface();
+            return paint.getTextSize() == other.paint.getTextSize()
+                    && paint.getTextScaleX() == other.paint.getTextScaleX()
+                    && paint.getTextSkewX() == other.paint.getTextSkewX()
+                    && letterSpacing(paint) == letterSpacing(other.paint)
+                    && paint.getFlags() == other.paint.getFlags()
+                    && paint.getColor() == other.paint.getColor()
+                    && paint.linkColor == other.paint.linkColor
+                    && (typeface == null ? otherTypeface == null : typeface.equals(otherTypeface))
+                    && sameTextFeatures(paint, other.paint)
+                    && spacingMultiplier == other.spacingMultiplier
+                    && spacingExtra == other.spacingExtra
+                    && includeFontPadding == other.includeFontPadding
+                    && alignment == other.alignment;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = Float.floatToIntBits(paint.getTextSize());
+            result = 31 * result + paint.getColor();
+            result = 31 * result + paint.getFlags();
+            result = 31 * result + (paint.getTypeface() != null ? paint.getTypeface().hashCode() : 0);
+            result = 31 * result + Float.floatToIntBits(spacingMultiplier);
+            result = 31 * result + Float.floatToIntBits(spacingExtra);
+            result = 31 * result + alignment.hashCode();
+            return result;
+        }
+    }
+
+    /**
+     * A Markdown source together with everything its layout depends on.
+     */
+    private static final class Key {
+        private final Object options;
+        private final String markdown;
+        private final int    width;
+        private final Style  style;
+
+        Key(final Object options, final String markdown, final int width, final Style style) {
+            this.options = options;
+            this.markdown = markdown;
+            this.width = width;
+            this.style = style;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key) o;
+            return width == key.width && options.equals(key.options) && markdown.equals(key.markdown)
+                    && style.equals(key.style);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = options.hashCode();
+            result = 31 * result + markdown.hashCode();
+            result = 31 * result + width;
+            result = 31 * result + style.hashCode();
+            return result;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.text.Layout;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * Shows a text laid out by a {@link LayoutCache}, so binding a text that was shown at the same width before skips
+ * measuring it. Made for long, static texts in lists, e.g. the messages of a conversation. Unlike a {@code TextView},
+ * the text can't be selected or edited. Links are clickable.
+ * <p>
+ * The view always takes the width it is offered and is as high as its text.
+ */
+public class LayoutView extends View {
+    private Layout layout;
+
+    private MarkdownRenderer  renderer;
+    private String            markdown;
+    private LayoutCache       cache;
+    private LayoutCache.Style style;
+
+    /**
+     * Incremented for every text and width, so layouts built for an earlier one are dropped.
+     */
+    private int           generation;
+    private ClickableSpan pressed;
+    /**
+     * The links of the layout, indexed on the first touch.
+     */
+    private LinkIndex     links;
+
+    public LayoutView(final Context context) {
+        super(context);
+    }
+
+    public LayoutView(final Context context, final AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    /**
+     * Shows the Markdown, laid out at the width of the view. Uses the cached layout if there is one, otherwise it is
+     * built on the renderer's executor and shown once done. Must be called on the main thread.
+     */
+    public void setMarkdown(final MarkdownRenderer renderer, final String markdown, final LayoutCache cache,
+                            final LayoutCache.Style style) {
+        if (renderer == null) {
+            throw new IllegalArgumentException("renderer == null");
+        }
+        if (cache == null) {
+            throw new IllegalArgumentException("cache == null");
+        }
+        if (style == null) {
+            throw new IllegalArgumentException("style == null");
+        }
+        this.renderer = renderer;
+        this.markdown = markdown;
+        this.cache = cache;
+        this.style = style;
+        generation++;
+        // a recycled view knows its width already, a new one once it is measured
+        final int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        if (width > 0) {
+            bind(width);
+        } else {
+            setTextLayout(null);
+        }
+    }
+
+    private void bind(final int width) {
+        if (markdown == null) {
+            setTextLayout(null);
+            return;
+        }
+        final Layout cached = cache.getCached(renderer, markdown, width, style);
+        if (cached != null) {
+            setTextLayout(cached);
+            return;
+        }
+        final int current = generation;
+        cache.precompute(renderer, markdown, width, style, new LayoutCache.Callback() {
+            @Override
+            public void onLayout(final Layout layout) {
+                if (current == generation) {
+                    setTextLayout(layout);
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows a layout built elsewhere, or nothing if null.
+     */
+    public void setTextLayout(final Layout layout) {
+        if (this.layout == layout) {
+            return;
+        }
+        final boolean resized = layout == null || this.layout == null || this.layout.getHeight() != layout.getHeight();
+        this.layout = layout;
+        pressed = null;
+        links = null;
+        if (resized) {
+            requestLayout();
+        }
+        invalidate();
+    }
+
+    public Layout getTextLayout() {
+        return layout;
+    }
+
+    @Override
+    protected void onMeasure(final int widthMeasureSpec, final int heightMeasureSpec) {
+        final int width = MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED
+                ? (layout == null ? 0 : layout.getWidth()) + getPaddingLeft() + getPaddingRight()
+                : MeasureSpec.getSize(widthMeasureSpec);
+        final int height = (layout == null ? 0 : layout.getHeight()) + getPaddingTop() + getPaddingBottom();
+        setMeasuredDimension(width, resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        final int width = w - getPaddingLeft() - getPaddingRight();
+        if (cache != null && width > 0 && (layout == null || layout.getWidth() != width)) {
+            generation++;
+            bind(width);
+        }
+    }
+
+    @Override
+    protected void onDraw(final Canvas canvas) {
+        super.onDraw(canvas);
+        if (layout == null) {
+            return;
+        }
+        final int saved = canvas.save();
+        canvas.translate(getPaddingLeft(), getPaddingTop());
+        layout.draw(canvas);
+        canvas.restoreToCount(saved);
+    }
+
+    @Override
+    public boolean onTouchEvent(final MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                pressed = findLink(event);
+                return pressed != null || super.onTouchEvent(event);
+            case MotionEvent.ACTION_UP:
+                final ClickableSpan link = pressed;
+                pressed = null;
+                if (link != null && link == findLink(event)) {
+                    link.onClick(this);
+                    return true;
+                }
+                break;
+            case MotionEvent.ACTION_CANCEL:
+                pressed = null;
+                break;
+        }
+        return super.onTouchEvent(event);
+    }
+
+    private ClickableSpan findLink(final MotionEvent event) {
+        if (layout == null || !(layout.getText() instanceof Spanned)) {
+            return null;
+        }
+        final int x = (int) event.getX() - getPaddingLeft();
+        final int y = (int) event.getY() - getPaddingTop();
+        if (y < 0 || y >= layout.getHeight()) {
+            return null;
+        }
+        final int line = layout.getLineForVertical(y);
+        if (x < layout.getLineLeft(line) || x >= layout.getLineRight(line)) {
+            return null;
+        }
+        if (links == null) {
+            links = new LinkIndex((Spanned) layout.getText());
+        }
+        return links.linkAt(layout.getOffsetForHorizontal(line, x));
+    }
+}
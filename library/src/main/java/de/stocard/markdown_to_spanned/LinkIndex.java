@@ -0,0 +1,171 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.NoCopySpan;
+import android.text.SpanWatcher;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+
+import java.util.Arrays;
+
+/**
+ * The links of a text sorted by their start, to find the link at a touched offset with a binary search instead of
+ * querying the text's spans on every touch event.
+ * <p>
+ * {@link #of} keeps the index on the text with a span watcher, which drops it as soon as a link is added, removed or
+ * moved. Older platforms copy the watcher along with the text, so it remembers the text it was set on and copies
+ * build an index of their own.
+ */
+final class LinkIndex {
+    private final ClickableSpan[] links;
+    private final int[]           starts;
+    private final int[]           ends;
+    /**
+     * Greatest end of the links up to each index, so a lookup stops at the first link that ends before the offset.
+     */
+    private final int[]           maxEnds;
+
+    private boolean valid = true;
+
+    LinkIndex(final Spanned text) {
+        final ClickableSpan[] spans = text.getSpans(0, text.length(), ClickableSpan.class);
+        final long[] byStart = new long[spans.length];
+        for (int i = 0; i < spans.length; i++) {
+            byStart[i] = ((long) text.getSpanStart(spans[i]) << 32) | i;
+        }
+        Arrays.sort(byStart);
+
+        links = new ClickableSpan[spans.length];
+        starts = new int[spans.length];
+        ends = new int[spans.length];
+        maxEnds = new int[spans.length];
+        for (int i = 0; i < spans.length; i++) {
+            links[i] = spans[(int) byStart[i]];
+            starts[i] = (int) (byStart[i] >>> 32);
+            ends[i] = text.getSpanEnd(links[i]);
+            maxEnds[i] = i == 0 ? ends[i] : Math.max(maxEnds[i - 1], ends[i]);
+        }
+    }
+
+    /**
+     * Returns the index kept on the text, or builds and keeps a new one if there is none or the links changed.
+     */
+    static LinkIndex of(final Spannable text) {
+        for (Watcher watcher : text.getSpans(0, text.length(), Watcher.class)) {
+            if (watcher.text == text && watcher.index.valid) {
+                return watcher.index;
+            }
+            // outdated, or copied from the text it was set on
+            text.removeSpan(watcher);
+        }
+        final LinkIndex index = new LinkIndex(text);
+        text.setSpan(new Watcher(text, index), 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        return index;
+    }
+
+    /**
+     * False once a link of the text it is kept on changed.
+     */
+    boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return the index of the link covering the offset, including its end like {@code getSpans(offset, offset)}, or
+     * -1 if there is none. Of nested links the innermost one.
+     */
+    int indexAt(final int offset) {
+        int index = Arrays.binarySearch(starts, offset);
+        if (index < 0) {
+            index = -index - 2;
+        } else {
+            // several links may start at the offset, begin at the last of them
+            while (index + 1 < starts.length && starts[index + 1] == offset) {
+                index++;
+            }
+        }
+        for (; index >= 0 && maxEnds[index] >= offset; index--) {
+            if (ends[index] >= offset) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the link covering the offset, or null if there is none
+     */
+    ClickableSpan linkAt(final int offset) {
+        final int index = indexAt(offset);
+        return index < 0 ? null : links[index];
+    }
+
+    ClickableSpan link(final int index) {
+        return links[index];
+    }
+
+    int start(final int index) {
+        return starts[index];
+    }
+
+    int end(final int index) {
+        return ends[index];
+    }
+
+    /**
+     * Number of links.
+     */
+    int size() {
+        return links.length;
+    }
+
+    /**
+     * Invalidates the index once a link of the text it was built for changes.
+     */
+    static final class Watcher implements SpanWatcher, NoCopySpan {
+        private final Spannable text;
+        private final LinkIndex index;
+
+        Watcher(final Spannable text, final LinkIndex index) {
+            this.text = text;
+            this.index = index;
+        }
+
+        @Override
+        public void onSpanAdded(final Spannable text, final Object what, final int start, final int end) {
+            onLinkChanged(text, what);
+        }
+
+        @Override
+        public void onSpanRemoved(final Spannable text, final Object what, final int start, final int end) {
+            onLinkChanged(text, what);
+        }
+
+        @Override
+        public void onSpanChanged(final Spannable text, final Object what, final int ostart, final int oend,
+                                  final int nstart, final int nend) {
+            onLinkChanged(text, what);
+        }
+
+        private void onLinkChanged(final Spannable changed, final Object what) {
+            if (changed == text && what instanceof ClickableSpan) {
+                index.valid = false;
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@ package de.stocard.markdown_to_spanned;
  * limitations under the License.
  */
 
+import android.text.Editable;
 import android.text.Html;
 import android.text.Layout;
 import android.text.Selection;
@@ -22,58 +23,126 @@ import android.text.Spannable;
 import android.text.Spanned;
 import android.text.method.LinkMovementMethod;
 import android.text.method.Touch;
-import android.text.style.ClickableSpan;
-import android.util.Log;
 import android.view.MotionEvent;
 import android.widget.TextView;
 
-import org.markdown4j.Markdown4jProcessor;
-
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.List;
 
 /**
  * This class processes Markdown strings into displayable styled text.
  */
 public class Markdown {
-    public static void setMarkdown(String markdown, TextView view) {
-        Log.d(Config.TAG, "md: " + markdown);
-        try {
-            String html = new Markdown4jProcessor().process(markdown);
-            Log.d(Config.TAG, "html: " + html);
-            CharSequence trimmed = convertToSpanned(html);
-            view.setText(trimmed);
-        } catch (IOException e) {
-            Log.e(Config.TAG, "error: " + e.getMessage());
+
+    /**
+     * The available ways of turning Markdown into spans.
+     */
+    public enum Engine {
+        /**
+         * Markdown4j generates HTML, which is then parsed by {@link Html#fromHtml} and {@link HTMLTagHandler}.
+         */
+        MARKDOWN4J,
+        /**
+         * The Markdown is parsed and written straight into spans, without going through HTML. Produces the same span
+         * types as {@link #MARKDOWN4J} but does not interpret raw HTML inside the Markdown. Of the named character
+         * references only those of HTML 4, e.g. {@code &copy;}, are decoded, others are kept as written.
+         */
+        DIRECT
+    }
+
+    private static volatile RenderCache      renderCache;
+    private static volatile DiskRenderCache  diskCache;
+    private static volatile MarkdownRenderer markdown4jRenderer = new MarkdownRenderer.Builder().build();
+    private static volatile MarkdownRenderer directRenderer     = new MarkdownRenderer.Builder()
+            .engine(Engine.DIRECT)
+            .build();
+
+    /**
+     * Enables caching of {@link #fromMarkdown} results in the given cache, or disables it if {@code null}.
+     * Cached results are immutable and may be shared between views.
+     */
+    public static synchronized void setRenderCache(RenderCache cache) {
+        renderCache = cache;
+        markdown4jRenderer = markdown4jRenderer.newBuilder().cache(cache).build();
+        directRenderer = directRenderer.newBuilder().cache(cache).build();
+    }
+
+    public static RenderCache getRenderCache() {
+        return renderCache;
+    }
+
+    /**
+     * Stores the results of {@link #fromMarkdown} on disk, so they are restored without parsing on later launches, or
+     * stops storing them if {@code null}. Reads and writes happen on the calling thread.
+     */
+    public static synchronized void setDiskCache(DiskRenderCache cache) {
+        diskCache = cache;
+        markdown4jRenderer = markdown4jRenderer.newBuilder().diskCache(cache).build();
+        directRenderer = directRenderer.newBuilder().diskCache(cache).build();
+    }
+
+    public static DiskRenderCache getDiskCache() {
+        return diskCache;
+    }
+
+    /**
+     * Reports the timings of the texts rendered by the static methods of this class to the given listener, or stops
+     * reporting if {@code null}.
+     */
+    public static synchronized void setRenderListener(RenderListener listener) {
+        if (listener == null) {
+            listener = RenderListener.NONE;
         }
-        view.setMovementMethod(LocalLinkMovementMethod.getInstance());
+        markdown4jRenderer = markdown4jRenderer.newBuilder().renderListener(listener).build();
+        directRenderer = directRenderer.newBuilder().renderListener(listener).build();
+    }
+
+    /**
+     * The renderer used by the static methods of this class for the given engine.
+     */
+    public static MarkdownRenderer getRenderer(Engine engine) {
+        return engine == Engine.DIRECT ? directRenderer : markdown4jRenderer;
+    }
+
+    public static void setMarkdown(String markdown, TextView view) {
+        markdown4jRenderer.setMarkdown(markdown, view);
+    }
 
+    /**
+     * Sets a text prerendered at build time on the view and makes its links clickable, see the README.
+     *
+     * @param asset path of the prerendered text in the assets, e.g. {@code markdown/help.md2s}
+     * @throws IOException if the asset can't be read or holds no prerendered text
+     */
+    public static void setPrerendered(String asset, TextView view) throws IOException {
+        markdown4jRenderer.setPlan(Prerendered.fromAsset(view.getContext().getAssets(), asset), view);
+    }
+
+    /**
+     * Renders the Markdown in the background and sets it on the view once done. Pending work for the view is
+     * cancelled. Must be called on the main thread.
+     *
+     * @see MarkdownRenderer#setMarkdownAsync(String, TextView, CharSequence, MarkdownRenderer.Callback)
+     */
+    public static void setMarkdownAsync(String markdown, TextView view) {
+        markdown4jRenderer.setMarkdownAsync(markdown, view);
     }
 
     public static Spanned fromMarkdown(String markdown) {
-        Log.d(Config.TAG, "md: " + markdown);
-        try {
-            String html = new Markdown4jProcessor().process(markdown);
-            html = workaroundCodeBlocks(html);
-            Log.d(Config.TAG, "html: " + html);
-            CharSequence trimmed = convertToSpanned(html);
-            return (Spanned) trimmed;
-        } catch (IOException e) {
-            Log.e(Config.TAG, "error: " + e.getMessage());
-        }
-        return null;
+        return fromMarkdown(markdown, Engine.MARKDOWN4J);
     }
 
-    private static CharSequence convertToSpanned(String html) {
-        String escapedHtmnl = customizeListTags(html);
+    public static Spanned fromMarkdown(String markdown, Engine engine) {
+        return getRenderer(engine).render(markdown);
+    }
 
-        Spanned spanned;
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
-            spanned = Html.fromHtml(escapedHtmnl, Html.FROM_HTML_MODE_LEGACY, null, new HTMLTagHandler());
-        } else {
-            //noinspection deprecation
-            spanned = Html.fromHtml(html, null, new HTMLTagHandler());
-        }
-        return trim(spanned, 0, spanned.length());
+    /**
+     * Renders all texts in parallel, see {@link MarkdownRenderer#renderAll(List)}. Blocks, so call it off the main
+     * thread.
+     */
+    public static List<Spanned> fromMarkdownAll(List<String> markdown, Engine engine) {
+        return getRenderer(engine).renderAll(markdown);
     }
 
     /**
@@ -85,45 +154,7 @@ public class Markdown {
      * @return
      */
     public static String customizeListTags(String html) {
-        if (html == null) {
-            return null;
-        }
-        html = html.replace("<ul", "<" + HTMLTagHandler.UL_TAG);
-        html = html.replace("</ul>", "</" + HTMLTagHandler.UL_TAG + ">");
-        html = html.replace("<ol", "<" + HTMLTagHandler.OL_TAG);
-        html = html.replace("</ol>", "</" + HTMLTagHandler.OL_TAG + ">");
-        //		html = html.replace("<dd", "<" + DD);
-        //		html = html.replace("</dd>", "</" + DD + ">");
-        html = html.replace("<li", "<" + HTMLTagHandler.LI_TAG);
-        html = html.replace("</li>", "</" + HTMLTagHandler.LI_TAG + ">");
-        return html;
-    }
-
-    private static String workaroundCodeBlocks(String html) {
-        // as pre tags are not properly handled and generated for codeblocks, we replace them with p
-        html = html.replaceAll("<pre>", "<p>");
-        html = html.replaceAll("</pre>", "</p>");
-
-        // for each newline in a code block we need to replace them with closing code, break, opening code
-        StringBuilder builder = new StringBuilder();
-        int idx = 0;
-        int codeStart = -1;
-        int codeEnd = -1;
-        while ((codeStart = html.indexOf("<code>", idx)) != -1 && (codeEnd = html.indexOf("</code>", idx)) != -1) {
-            // append everything until codeblock start
-            builder.append(html.substring(idx, codeStart));
-
-            // get content of codeblock, workaround newline foo, and append it
-            String tmp = new String(html.substring(codeStart, codeEnd));
-            tmp = tmp.replaceAll("\n", "</code><br /><code>");
-            builder.append(tmp);
-
-            // new start index is
-            idx = codeEnd;
-        }
-        builder.append(html.substring(idx));
-
-        return builder.toString();
+        return HtmlTagRewriter.rewrite(html, MarkdownRenderer.CodeBlocks.RAW);
     }
 
     public static String replaceOld(
@@ -157,14 +188,32 @@ public class Markdown {
 
 
     static class LocalLinkMovementMethod extends LinkMovementMethod {
-        static LocalLinkMovementMethod sInstance;
+        /**
+         * Initialized on first use, safely published by the class loader.
+         */
+        private static class InstanceHolder {
+            static final LocalLinkMovementMethod INSTANCE = new LocalLinkMovementMethod();
+        }
+
+        /**
+         * The text touched last and its links, touch events only arrive on the main thread.
+         */
+        private WeakReference<Spannable> touched;
+        private LinkIndex                touchedLinks;
 
         public static LocalLinkMovementMethod getInstance() {
-            if (sInstance == null) {
-                sInstance = new LocalLinkMovementMethod();
-            }
+            return InstanceHolder.INSTANCE;
+        }
 
-            return sInstance;
+        /**
+         * The links of the buffer, looked up once per buffer instead of on every touch event.
+         */
+        private LinkIndex links(Spannable buffer) {
+            if (touchedLinks == null || !touchedLinks.isValid() || touched.get() != buffer) {
+                touchedLinks = LinkIndex.of(buffer);
+                touched = new WeakReference<Spannable>(buffer);
+            }
+            return touchedLinks;
         }
 
         @Override
@@ -186,15 +235,16 @@ public class Markdown {
                 int line = layout.getLineForVertical(y);
                 int off = layout.getOffsetForHorizontal(line, x);
 
-                ClickableSpan[] link = buffer.getSpans(off, off, ClickableSpan.class);
+                LinkIndex links = links(buffer);
+                int link = links.indexAt(off);
 
-                if (link.length != 0) {
+                if (link >= 0) {
                     if (action == MotionEvent.ACTION_UP) {
-                        link[0].onClick(widget);
+                        links.link(link).onClick(widget);
                     } else if (action == MotionEvent.ACTION_DOWN) {
                         Selection.setSelection(buffer,
-                                               buffer.getSpanStart(link[0]),
-                                               buffer.getSpanEnd(link[0]));
+                                               links.start(link),
+                                               links.end(link));
                     }
 
                     //					if (widget instanceof HtmlTextView) {
@@ -222,4 +272,48 @@ public class Markdown {
 
         return s.subSequence(start, end);
     }
+
+    /**
+     * Trims a freshly rendered text like {@link #trim}. An editable text, as rendered by both engines, is trimmed in
+     * place instead of being copied with all its spans, so it is the only copy of the text.
+     */
+    static Spanned trimInPlace(Spanned s) {
+        if (!(s instanceof Editable)) {
+            return (Spanned) trim(s, 0, s.length());
+        }
+        Editable text = (Editable) s;
+        int length = text.length();
+        int start = 0;
+        while (start < length && Character.isWhitespace(text.charAt(start))) {
+            start++;
+        }
+        int end = length;
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            end--;
+        }
+        if (start == 0 && end == length) {
+            return text;
+        }
+
+        // spans covering nothing but the whitespace would be left empty, a copy would not contain them
+        if (start > 0) {
+            removeSpansWithin(text, 0, start);
+        }
+        if (end < length) {
+            removeSpansWithin(text, end, length);
+        }
+        text.delete(end, length);
+        text.delete(0, start);
+        return text;
+    }
+
+    private static void removeSpansWithin(Editable text, int start, int end) {
+        for (Object span : text.getSpans(start, end, Object.class)) {
+            int spanStart = text.getSpanStart(span);
+            int spanEnd = text.getSpanEnd(span);
+            if (spanStart >= start && spanEnd <= end && spanStart < spanEnd) {
+                text.removeSpan(span);
+            }
+        }
+    }
 }
@@ -0,0 +1,233 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.text.Spanned;
+import android.util.SparseArray;
+import android.widget.TextView;
+
+import java.util.ArrayDeque;
+
+/**
+ * Renders the Markdown of list items before they scroll into view, so binding an item only sets a finished text.
+ * <p>
+ * Report the visible positions whenever the list scrolls, e.g. from {@code RecyclerView.OnScrollListener.onScrolled}
+ * with the first and last visible positions of the layout manager, and bind items with {@link #bind}. The items
+ * following in the direction of scrolling are rendered on the main thread while it is idle between frames, within a
+ * time budget per idle pass. Items scrolled past are dropped, rendered or not.
+ * <p>
+ * Must be used on the main thread.
+ */
+public final class MarkdownPrefetcher {
+    /**
+     * Provides the Markdown of the list items, e.g. the adapter.
+     */
+    public interface Source {
+        int getItemCount();
+
+        /**
+         * @return the Markdown of the item, or null if it shows none
+         */
+        String getMarkdown(int position);
+    }
+
+    private static final long DEFAULT_BUDGET_MILLIS = 4;
+    private static final int  DEFAULT_LOOKAHEAD     = 8;
+
+    private final MarkdownRenderer renderer;
+    private final Source           source;
+    private final int              lookahead;
+    private final long             budgetNanos;
+
+    private final SparseArray<Entry> rendered = new SparseArray<Entry>();
+    private final ArrayDeque<Integer> queue   = new ArrayDeque<Integer>();
+
+    private final MessageQueue.IdleHandler idleHandler = new MessageQueue.IdleHandler() {
+        @Override
+        public boolean queueIdle() {
+            return renderQueued();
+        }
+    };
+
+    private boolean idleHandlerAdded;
+    private int     firstVisible = -1;
+    private int     lastVisible  = -1;
+    private int     hitCount;
+    private int     missCount;
+
+    /**
+     * Prefetches 8 items ahead and renders for at most 4 ms per idle pass.
+     */
+    public MarkdownPrefetcher(final MarkdownRenderer renderer, final Source source) {
+        this(renderer, source, DEFAULT_LOOKAHEAD, DEFAULT_BUDGET_MILLIS);
+    }
+
+    /**
+     * @param lookahead    number of items rendered ahead of the visible ones
+     * @param budgetMillis time spent rendering per idle pass. At least one item is rendered per pass, so the next
+     *                     frame waits for at most one item.
+     */
+    public MarkdownPrefetcher(final MarkdownRenderer renderer, final Source source, final int lookahead,
+                              final long budgetMillis) {
+        if (renderer == null) {
+            throw new IllegalArgumentException("renderer == null");
+        }
+        if (source == null) {
+            throw new IllegalArgumentException("source == null");
+        }
+        if (lookahead < 0) {
+            throw new IllegalArgumentException("lookahead < 0");
+        }
+        if (budgetMillis < 0) {
+            throw new IllegalArgumentException("budgetMillis < 0");
+        }
+        this.renderer = renderer;
+        this.source = source;
+        this.lookahead = lookahead;
+        this.budgetNanos = budgetMillis * 1000000;
+    }
+
+    private static final class Entry {
+        final String  markdown;
+        final Spanned spanned;
+
+        Entry(final String markdown, final Spanned spanned) {
+            this.markdown = markdown;
+            this.spanned = spanned;
+        }
+    }
+
+    /**
+     * Reports the visible items. Queues the items following them in the direction of scrolling and drops the ones
+     * scrolled past.
+     */
+    public void onScrolled(final int firstVisible, final int lastVisible) {
+        if (firstVisible < 0 || lastVisible < firstVisible) {
+            return;
+        }
+        final boolean backwards = firstVisible < this.firstVisible;
+        this.firstVisible = firstVisible;
+        this.lastVisible = lastVisible;
+
+        // keep the visible items, they may be bound again, and the ones ahead in either direction
+        for (int i = rendered.size() - 1; i >= 0; i--) {
+            final int position = rendered.keyAt(i);
+            if (position < firstVisible - lookahead || position > lastVisible + lookahead) {
+                rendered.removeAt(i);
+            }
+        }
+
+        queue.clear();
+        final int count = source.getItemCount();
+        for (int i = 1; i <= lookahead; i++) {
+            final int position = backwards ? firstVisible - i : lastVisible + i;
+            if (position < 0 || position >= count) {
+                break;
+            }
+            if (rendered.get(position) == null) {
+                queue.add(position);
+            }
+        }
+        if (!queue.isEmpty() && !idleHandlerAdded) {
+            Looper.myQueue().addIdleHandler(idleHandler);
+            idleHandlerAdded = true;
+        }
+    }
+
+    /**
+     * Sets the text of the item on the view and makes its links clickable. Rendered right away if it was not
+     * prefetched.
+     */
+    public void bind(final int position, final TextView view) {
+        final Spanned spanned = get(position);
+        view.setText(spanned);
+        view.setMovementMethod(Markdown.LocalLinkMovementMethod.getInstance());
+    }
+
+    /**
+     * @return the text of the item, rendered right away if it was not prefetched, or null if the item has no Markdown
+     * or it could not be rendered
+     */
+    public Spanned get(final int position) {
+        final String markdown = source.getMarkdown(position);
+        final Entry entry = rendered.get(position);
+        // the item may have changed since it was prefetched
+        if (entry != null && equal(entry.markdown, markdown)) {
+            hitCount++;
+            return entry.spanned;
+        }
+        missCount++;
+        final Spanned spanned = markdown == null ? null : renderer.render(markdown);
+        rendered.put(position, new Entry(markdown, spanned));
+        return spanned;
+    }
+
+    /**
+     * Drops all prefetched texts, e.g. once the items changed.
+     */
+    public void clear() {
+        rendered.clear();
+        queue.clear();
+    }
+
+    /**
+     * Renders queued items until the budget is spent, at least one.
+     *
+     * @return whether items are left, so the idle handler stays registered
+     */
+    boolean renderQueued() {
+        final long start = System.nanoTime();
+        do {
+            final Integer position = queue.poll();
+            if (position == null) {
+                break;
+            }
+            if (rendered.get(position) == null && position < source.getItemCount()) {
+                final String markdown = source.getMarkdown(position);
+                rendered.put(position, new Entry(markdown, markdown == null ? null : renderer.render(markdown)));
+            }
+        } while (System.nanoTime() - start < budgetNanos);
+        idleHandlerAdded = !queue.isEmpty();
+        return idleHandlerAdded;
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Number of items queued for rendering.
+     */
+    int queuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Number of items bound with a prefetched text.
+     */
+    public int hitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Number of items that had to be rendered while binding.
+     */
+    public int missCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,576 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Html;
+import android.text.Spanned;
+import android.util.Log;
+import android.widget.TextView;
+
+import org.markdown4j.Markdown4jProcessor;
+import org.markdown4j.Plugin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Renders Markdown into styled text with a fixed set of options.
+ * <p>
+ * A renderer is built once with a {@link Builder} and reuses its Markdown processor and tag handlers for every
+ * text it renders. It is immutable and may be shared between threads: every thread renders with processors and tag
+ * handlers of its own, so texts can be rendered concurrently, see {@link #renderAll}. Plugins, image getters and
+ * listeners are shared and must be thread-safe to render concurrently.
+ */
+public final class MarkdownRenderer {
+
+    /**
+     * How code blocks are rendered. {@link Html#fromHtml} drops the newlines and collapses the spaces inside them.
+     */
+    public enum CodeBlocks {
+        /**
+         * Every code block is one monospace text with its line breaks and indentation kept. With
+         * {@link Markdown.Engine#MARKDOWN4J}, runs of spaces are kept as no-break spaces.
+         */
+        BLOCK,
+        /**
+         * Every line of a code block is rendered as its own code fragment, separated by line breaks. Indentation is
+         * lost with {@link Markdown.Engine#MARKDOWN4J}.
+         */
+        SPLIT_LINES,
+        /**
+         * Code blocks are passed on to {@link Html#fromHtml} as generated by Markdown4j, so a block is rendered as a
+         * single line. {@link Markdown.Engine#DIRECT} renders them like {@link #SPLIT_LINES}.
+         */
+        RAW
+    }
+
+    /**
+     * Notified on the main thread once asynchronously rendered text has been set on its view.
+     */
+    public interface Callback {
+        /**
+         * @param rendered the text set on the view, or null if the Markdown could not be processed
+         */
+        void onRendered(TextView view, Spanned rendered);
+    }
+
+    private final Markdown.Engine     engine;
+    private final CodeBlocks          codeBlocks;
+    private final List<Plugin>        plugins;
+    private final Html.ImageGetter    imageGetter;
+    private final boolean             logging;
+    private final RenderCache         cache;
+    private final DiskRenderCache     diskCache;
+    private final Executor            executor;
+    private final RenderListener      listener;
+    private final Options             options;
+    private final ThreadLocal<Markdown4jProcessor> processors;
+    private final DirectRenderer      directRenderer;
+
+    private final ThreadLocal<HTMLTagHandler> tagHandlers = new ThreadLocal<HTMLTagHandler>() {
+        @Override
+        protected HTMLTagHandler initialValue() {
+            return new HTMLTagHandler();
+        }
+    };
+
+    private MarkdownRenderer(final Builder builder) {
+        engine = builder.engine;
+        codeBlocks = builder.codeBlocks;
+        plugins = Collections.unmodifiableList(new ArrayList<Plugin>(builder.plugins));
+        imageGetter = builder.imageGetter;
+        logging = builder.logging;
+        cache = builder.cache;
+        diskCache = builder.diskCache;
+        executor = builder.executor;
+        listener = builder.listener;
+        options = new Options(engine, codeBlocks, plugins, imageGetter);
+
+        if (engine == Markdown.Engine.MARKDOWN4J) {
+            // the processor keeps state between texts, so every thread gets its own
+            processors = new ThreadLocal<Markdown4jProcessor>() {
+                @Override
+                protected Markdown4jProcessor initialValue() {
+                    final Markdown4jProcessor processor = new Markdown4jProcessor();
+                    if (!plugins.isEmpty()) {
+                        processor.registerPlugins(plugins.toArray(new Plugin[plugins.size()]));
+                    }
+                    return processor;
+                }
+            };
+            directRenderer = null;
+        } else {
+            processors = null;
+            directRenderer = new DirectRenderer(imageGetter, codeBlocks);
+        }
+    }
+
+    /**
+     * Renders the Markdown, or returns the cached result if this renderer has a {@link RenderCache} or
+     * {@link DiskRenderCache}.
+     *
+     * @return the styled text, or null if the Markdown could not be processed
+     */
+    public Spanned render(final String markdown) {
+        if (cache == null && diskCache == null) {
+            return renderUncached(markdown);
+        }
+        Spanned spanned = cached(markdown);
+        if (spanned != null) {
+            return spanned;
+        }
+        final SpanPlan stored = diskCache == null ? null : diskCache.get(markdown, options.persistentKey);
+        if (stored != null) {
+            spanned = stored.toSpanned(imageGetter);
+        } else {
+            spanned = renderUncached(markdown);
+            if (spanned == null) {
+                return null;
+            }
+            if (diskCache != null) {
+                diskCache.put(markdown, options.persistentKey, SpanPlan.of(spanned));
+            }
+        }
+        return cache == null ? spanned : cache.put(markdown, options, spanned);
+    }
+
+    /**
+     * Renders the Markdown into a {@link SpanPlan}, which describes the styled text without creating its spans, or
+     * returns the cached plan if this renderer has a {@link RenderCache} or {@link DiskRenderCache}.
+     *
+     * @return the plan, or null if the Markdown could not be processed
+     */
+    public SpanPlan renderPlan(final String markdown) {
+        SpanPlan plan = cache == null ? null : cache.getPlan(markdown, options);
+        if (plan != null) {
+            return plan;
+        }
+        plan = diskCache == null ? null : diskCache.get(markdown, options.persistentKey);
+        Spanned spanned = null;
+        if (plan == null) {
+            spanned = renderUncached(markdown);
+            if (spanned == null) {
+                return null;
+            }
+            plan = SpanPlan.of(spanned);
+            if (diskCache != null) {
+                diskCache.put(markdown, options.persistentKey, plan);
+            }
+        }
+        if (cache != null) {
+            if (cache.isCompact()) {
+                cache.putPlan(markdown, options, plan);
+            } else {
+                cache.put(markdown, options, spanned != null ? spanned : plan.toSpanned(imageGetter));
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Renders all texts in parallel, on the calling thread and a shared pool with a thread for each further core, see
+     * {@link #renderAll(List, Executor, int)}.
+     */
+    public List<Spanned> renderAll(final List<String> markdown) {
+        return renderAll(markdown, RenderBatch.DefaultExecutor.INSTANCE, RenderBatch.DefaultExecutor.HELPERS);
+    }
+
+    /**
+     * Renders all texts in parallel, e.g. the messages of a conversation, like {@link #render} would one after the
+     * other. Blocks until all texts are rendered, so call it off the main thread.
+     * <p>
+     * A text that fails to render, even with an exception, doesn't affect the others: its result is null.
+     *
+     * @param executor runs the helpers. If it is busy or rejects them, the calling thread renders their share.
+     * @param helpers  number of tasks submitted to the executor to render alongside the calling thread, 0 to render
+     *                 on the calling thread only
+     * @return the styled texts in the order of the Markdown, null for texts that could not be processed
+     */
+    public List<Spanned> renderAll(final List<String> markdown, final Executor executor, final int helpers) {
+        if (markdown == null) {
+            throw new IllegalArgumentException("markdown == null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("executor == null");
+        }
+        if (helpers < 0) {
+            throw new IllegalArgumentException("helpers < 0");
+        }
+        return RenderBatch.render(this, markdown, executor, helpers);
+    }
+
+    /**
+     * Renders the Markdown into the view and makes its links clickable.
+     */
+    public void setMarkdown(final String markdown, final TextView view) {
+        RenderTask.cancel(view);
+        final Spanned spanned = render(markdown);
+        if (spanned != null) {
+            view.setText(spanned);
+        }
+        view.setMovementMethod(Markdown.LocalLinkMovementMethod.getInstance());
+    }
+
+    /**
+     * Creates the spans of a plan rendered by {@link #renderPlan}, loading images with this renderer's image getter,
+     * and sets the text on the view, making its links clickable.
+     */
+    public void setPlan(final SpanPlan plan, final TextView view) {
+        RenderTask.cancel(view);
+        view.setText(plan.toSpanned(imageGetter));
+        view.setMovementMethod(Markdown.LocalLinkMovementMethod.getInstance());
+    }
+
+    /**
+     * Renders the Markdown on this renderer's executor and sets it on the view once done, see
+     * {@link #setMarkdownAsync(String, TextView, CharSequence, Callback)}.
+     */
+    public void setMarkdownAsync(final String markdown, final TextView view) {
+        setMarkdownAsync(markdown, view, null, null);
+    }
+
+    /**
+     * Renders the Markdown on this renderer's executor and sets it on the view once done, making its links clickable.
+     * Must be called on the main thread.
+     * <p>
+     * Pending work for the view is cancelled, so views can be rebound safely, e.g. when recycled by a list. Results
+     * already in the {@link RenderCache} are set right away.
+     *
+     * @param placeholder shown until the text is rendered, or null to keep the current text
+     * @param callback    notified once the text is set, may be null. Notified with null if the Markdown could not be
+     *                    rendered, the placeholder is kept then. Not notified if the work is cancelled.
+     */
+    public void setMarkdownAsync(final String markdown, final TextView view, final CharSequence placeholder,
+                                 final Callback callback) {
+        RenderTask.start(this, markdown, view, placeholder, executor, callback);
+    }
+
+    /**
+     * Cancels pending asynchronous rendering into the view. Must be called on the main thread.
+     */
+    public static void cancel(final TextView view) {
+        RenderTask.cancel(view);
+    }
+
+    /**
+     * @return the cached result, or null if not cached or this renderer has no cache
+     */
+    Spanned cached(final String markdown) {
+        return cache == null ? null : cache.get(markdown, options, imageGetter);
+    }
+
+    private Spanned renderUncached(final String markdown) {
+        final boolean timed = listener != RenderListener.NONE;
+        final long renderStart = timed ? System.nanoTime() : 0;
+        long stageStart = renderStart;
+        if (logging) {
+            Log.d(Config.TAG, "md: " + markdown);
+        }
+
+        final Spanned untrimmed;
+        if (directRenderer != null) {
+            untrimmed = directRenderer.render(markdown);
+            if (timed) {
+                stageStart = reportStage(RenderListener.Stage.MARKDOWN_TO_SPANNED, stageStart);
+            }
+        } else {
+            String html;
+            try {
+                html = processors.get().process(markdown);
+            } catch (IOException e) {
+                Log.e(Config.TAG, "error: " + e.getMessage());
+                return null;
+            }
+            if (timed) {
+                stageStart = reportStage(RenderListener.Stage.MARKDOWN_TO_HTML, stageStart);
+            }
+            html = HtmlTagRewriter.rewrite(html, codeBlocks);
+            if (timed) {
+                stageStart = reportStage(RenderListener.Stage.REWRITE_TAGS, stageStart);
+            }
+            if (logging) {
+                Log.d(Config.TAG, "html: " + html);
+            }
+            untrimmed = convertToSpanned(html);
+            if (timed) {
+                stageStart = reportStage(RenderListener.Stage.HTML_TO_SPANNED, stageStart);
+            }
+        }
+
+        final Spanned spanned = Markdown.trimInPlace(untrimmed);
+        if (timed) {
+            final long end = reportStage(RenderListener.Stage.TRIM, stageStart);
+            listener.onRendered(markdown == null ? 0 : markdown.length(),
+                    spanned.getSpans(0, spanned.length(), Object.class).length, end - renderStart);
+        }
+        return spanned;
+    }
+
+    /**
+     * Reports the stage that started at {@code since} and returns its end.
+     */
+    private long reportStage(final RenderListener.Stage stage, final long since) {
+        final long now = System.nanoTime();
+        listener.onStage(stage, now - since);
+        return now;
+    }
+
+    private Spanned convertToSpanned(final String html) {
+        final HTMLTagHandler tagHandler = tagHandlers.get();
+        tagHandler.reset();
+
+        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.N) {
+            return Html.fromHtml(html, Html.FROM_HTML_MODE_LEGACY, imageGetter, tagHandler);
+        } else {
+            //noinspection deprecation
+            return Html.fromHtml(html, imageGetter, tagHandler);
+        }
+    }
+
+    /**
+     * The options that influence the rendered result, equal for renderers that render alike. Keys derived results.
+     */
+    Object getOptions() {
+        return options;
+    }
+
+    public Html.ImageGetter getImageGetter() {
+        return imageGetter;
+    }
+
+    public Markdown.Engine getEngine() {
+        return engine;
+    }
+
+    public RenderCache getCache() {
+        return cache;
+    }
+
+    public DiskRenderCache getDiskCache() {
+        return diskCache;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public RenderListener getRenderListener() {
+        return listener;
+    }
+
+    /**
+     * Returns a builder initialized with the options of this renderer.
+     */
+    public Builder newBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Builds {@link MarkdownRenderer}s. By default renders with {@link Markdown.Engine#MARKDOWN4J}, keeps code blocks
+     * whole under a single monospace span ({@link CodeBlocks#BLOCK}), does not load images, does not log, does not
+     * cache in memory or on disk, does not report timings and renders asynchronously on a shared background thread.
+     */
+    public static final class Builder {
+        private Markdown.Engine  engine     = Markdown.Engine.MARKDOWN4J;
+        private CodeBlocks       codeBlocks = CodeBlocks.BLOCK;
+        private List<Plugin>     plugins    = new ArrayList<Plugin>();
+        private Html.ImageGetter imageGetter;
+        private boolean          logging;
+        private RenderCache      cache;
+        private DiskRenderCache  diskCache;
+        private Executor         executor   = DefaultExecutor.INSTANCE;
+        private RenderListener   listener   = RenderListener.NONE;
+
+        public Builder() {
+        }
+
+        private Builder(final MarkdownRenderer renderer) {
+            engine = renderer.engine;
+            codeBlocks = renderer.codeBlocks;
+            plugins.addAll(renderer.plugins);
+            imageGetter = renderer.imageGetter;
+            logging = renderer.logging;
+            cache = renderer.cache;
+            diskCache = renderer.diskCache;
+            executor = renderer.executor;
+            listener = renderer.listener;
+        }
+
+        public Builder engine(final Markdown.Engine engine) {
+            if (engine == null) {
+                throw new IllegalArgumentException("engine == null");
+            }
+            this.engine = engine;
+            return this;
+        }
+
+        /**
+         * How code blocks are rendered, {@link CodeBlocks#BLOCK} by default.
+         */
+        public Builder codeBlocks(final CodeBlocks codeBlocks) {
+            if (codeBlocks == null) {
+                throw new IllegalArgumentException("codeBlocks == null");
+            }
+            this.codeBlocks = codeBlocks;
+            return this;
+        }
+
+        /**
+         * Registers Markdown4j extension plugins, used by the {@link Markdown.Engine#MARKDOWN4J} engine.
+         */
+        public Builder plugins(final Plugin... plugins) {
+            this.plugins.addAll(Arrays.asList(plugins));
+            return this;
+        }
+
+        /**
+         * Loads the images of the rendered text, e.g. an {@link ImageGetter}. Without, images are dropped.
+         */
+        public Builder imageGetter(final Html.ImageGetter imageGetter) {
+            this.imageGetter = imageGetter;
+            return this;
+        }
+
+        /**
+         * Logs the Markdown and the generated HTML of every render.
+         */
+        public Builder logging(final boolean logging) {
+            this.logging = logging;
+            return this;
+        }
+
+        /**
+         * Caches rendered texts. The cache may be shared with other renderers, results are kept apart by options.
+         */
+        public Builder cache(final RenderCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        /**
+         * Stores rendered texts on disk, so they are restored without parsing on later launches. Results are kept
+         * apart by options, but a renderer's plugins and image getter are only told apart by their classes.
+         */
+        public Builder diskCache(final DiskRenderCache diskCache) {
+            this.diskCache = diskCache;
+            return this;
+        }
+
+        /**
+         * Runs asynchronous rendering, see {@link #setMarkdownAsync}.
+         */
+        public Builder executor(final Executor executor) {
+            if (executor == null) {
+                throw new IllegalArgumentException("executor == null");
+            }
+            this.executor = executor;
+            return this;
+        }
+
+        /**
+         * Receives the timings of every render, see {@link RenderListener}.
+         */
+        public Builder renderListener(final RenderListener listener) {
+            if (listener == null) {
+                throw new IllegalArgumentException("listener == null");
+            }
+            this.listener = listener;
+            return this;
+        }
+
+        public MarkdownRenderer build() {
+            return new MarkdownRenderer(this);
+        }
+    }
+
+    /**
+     * Single background thread shared by all renderers without an executor of their own, created on first use.
+     */
+    private static final class DefaultExecutor {
+        static final ExecutorService INSTANCE = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "md2s-render");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * The options that influence the rendered result, used to key cached results.
+     */
+    private static final class Options {
+        private final Markdown.Engine  engine;
+        private final CodeBlocks       codeBlocks;
+        private final List<Plugin>     plugins;
+        private final Html.ImageGetter imageGetter;
+        /**
+         * Describes the options with what stays the same across launches, used to key texts in a
+         * {@link DiskRenderCache}.
+         */
+        final String persistentKey;
+
+        Options(final Markdown.Engine engine, final CodeBlocks codeBlocks, final List<Plugin> plugins,
+                final Html.ImageGetter imageGetter) {
+            this.engine = engine;
+            this.codeBlocks = codeBlocks;
+            this.plugins = plugins;
+            this.imageGetter = imageGetter;
+
+            final StringBuilder key = new StringBuilder(engine.name()).append(',').append(codeBlocks.name());
+            for (Plugin plugin : plugins) {
+                key.append(',').append(plugin.getClass().getName());
+            }
+            if (imageGetter != null) {
+                key.append(",images=").append(imageGetter.getClass().getName());
+            }
+            persistentKey = key.toString();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Options)) {
+                return false;
+            }
+            final Options other = (Options) o;
+            return engine == other.engine
+                    && codeBlocks == other.codeBlocks
+                    && plugins.equals(other.plugins)
+                    && imageGetter == other.imageGetter;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = engine.hashCode();
+            result = 31 * result + codeBlocks.hashCode();
+            result = 31 * result + plugins.hashCode();
+            result = 31 * result + System.identityHashCode(imageGetter);
+            return result;
+        }
+    }
+}
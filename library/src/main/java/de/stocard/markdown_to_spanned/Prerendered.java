@@ -0,0 +1,75 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.res.AssetManager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Loads texts prerendered at build time, see the README. Loading reads the {@link SpanPlan} of the text, no Markdown
+ * is parsed.
+ */
+public final class Prerendered {
+    /**
+     * File extension of prerendered texts.
+     */
+    public static final String SUFFIX = ".md2s";
+
+    private Prerendered() {
+    }
+
+    /**
+     * Reads a prerendered text from an asset.
+     *
+     * @param path e.g. {@code markdown/help.md2s} for the Markdown file {@code src/main/markdown/help.md}
+     * @throws IOException if the asset can't be read or holds no prerendered text
+     */
+    public static SpanPlan fromAsset(final AssetManager assets, final String path) throws IOException {
+        final InputStream in = assets.open(path);
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a prerendered text to the end of the stream, e.g. of a raw resource. Does not close the stream.
+     *
+     * @throws IOException if the stream can't be read or holds no prerendered text
+     */
+    public static SpanPlan read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(in.available(), 4096));
+        final byte[] chunk = new byte[4096];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            bytes.write(chunk, 0, read);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        try {
+            return SpanPlan.readFrom(buffer);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("no prerendered text: " + e.getMessage());
+        } catch (BufferUnderflowException e) {
+            throw new IOException("truncated prerendered text");
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Spanned;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders a list of texts in parallel, see {@link MarkdownRenderer#renderAll}.
+ * <p>
+ * The calling thread and the helpers submitted to the executor take the next text to render from a shared index until
+ * none is left, so fast and slow texts balance across threads. The calling thread renders whatever the helpers don't
+ * get to, so a busy or rejecting executor only costs parallelism and can't stall the batch.
+ */
+final class RenderBatch implements Runnable {
+    private final MarkdownRenderer renderer;
+    private final String[]         markdown;
+    private final Spanned[]        results;
+    private final AtomicInteger    next = new AtomicInteger();
+    private final CountDownLatch   done;
+
+    private RenderBatch(final MarkdownRenderer renderer, final String[] markdown) {
+        this.renderer = renderer;
+        this.markdown = markdown;
+        results = new Spanned[markdown.length];
+        done = new CountDownLatch(markdown.length);
+    }
+
+    /**
+     * @param helpers number of tasks submitted to the executor to render alongside the calling thread
+     * @return the results in the order of the texts
+     */
+    static List<Spanned> render(final MarkdownRenderer renderer, final List<String> markdown,
+                                final Executor executor, final int helpers) {
+        if (markdown.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final RenderBatch batch = new RenderBatch(renderer, markdown.toArray(new String[markdown.size()]));
+        final int count = Math.min(helpers, markdown.size() - 1);
+        for (int i = 0; i < count; i++) {
+            try {
+                executor.execute(batch);
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+        batch.run();
+        batch.await();
+        return Collections.unmodifiableList(Arrays.asList(batch.results));
+    }
+
+    @Override
+    public void run() {
+        int index;
+        while ((index = next.getAndIncrement()) < markdown.length) {
+            try {
+                results[index] = renderer.render(markdown[index]);
+            } catch (RuntimeException e) {
+                Log.e(Config.TAG, "could not render text " + index + " of the batch", e);
+            } catch (StackOverflowError e) {
+                Log.e(Config.TAG, "text " + index + " of the batch is nested too deeply", e);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Waits for the texts the helpers are still rendering. Interrupts are deferred, the results are needed either way.
+     */
+    private void await() {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Pool with a thread for every core but the one of the calling thread, created on first use.
+     */
+    static final class DefaultExecutor {
+        static final int HELPERS = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+        static final ExecutorService INSTANCE = Executors.newFixedThreadPool(HELPERS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "md2s-batch-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        private DefaultExecutor() {
+        }
+    }
+}
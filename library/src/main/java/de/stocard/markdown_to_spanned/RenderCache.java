@@ -0,0 +1,185 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Html;
+import android.text.Spanned;
+import android.text.SpannedString;
+
+/**
+ * LRU cache of rendered Markdown, bounded by the size of the cached texts.
+ * <p>
+ * Every entry weighs its number of characters plus {@link #SPAN_WEIGHT} per span. Cached results are immutable
+ * {@link SpannedString}s and can be set on any number of views. The cache is thread-safe.
+ * <p>
+ * A compact cache stores {@link SpanPlan}s instead and weighs {@link #PLAN_SPAN_WEIGHT} per span plus the strings the
+ * spans refer to. It fits more texts into the same memory, but creates new spans on every hit.
+ */
+public final class RenderCache {
+    /**
+     * Weight of a single span, in characters.
+     */
+    public static final int SPAN_WEIGHT = 16;
+
+    /**
+     * Weight of a single span of a {@link SpanPlan}, in characters.
+     */
+    public static final int PLAN_SPAN_WEIGHT = 10;
+
+    private final WeightedLruCache<Key, Object> cache;
+    private final boolean                       compact;
+
+    /**
+     * @param maxWeight maximum summed weight of all cached texts, see {@link RenderCache}
+     */
+    public RenderCache(final int maxWeight) {
+        this(maxWeight, false);
+    }
+
+    /**
+     * @param maxWeight maximum summed weight of all cached texts, see {@link RenderCache}
+     * @param compact   whether to store {@link SpanPlan}s instead of spanned texts
+     */
+    public RenderCache(final int maxWeight, final boolean compact) {
+        this.compact = compact;
+        cache = new WeightedLruCache<Key, Object>(maxWeight) {
+            @Override
+            protected int weigh(final Key key, final Object value) {
+                return value instanceof SpanPlan
+                        ? RenderCache.weigh((SpanPlan) value)
+                        : RenderCache.weigh((Spanned) value);
+            }
+        };
+    }
+
+    /**
+     * Weight of a rendered text as accounted by this cache.
+     */
+    public static int weigh(final Spanned spanned) {
+        return spanned.length() + SPAN_WEIGHT * spanned.getSpans(0, spanned.length(), Object.class).length;
+    }
+
+    /**
+     * Weight of a plan as accounted by a compact cache.
+     */
+    public static int weigh(final SpanPlan plan) {
+        return plan.length() + PLAN_SPAN_WEIGHT * plan.spanCount() + plan.stringLength();
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @param imageGetter loads the images of cached plans
+     */
+    Spanned get(final String markdown, final Object options, final Html.ImageGetter imageGetter) {
+        final Object cached = cache.get(new Key(markdown, options));
+        return cached instanceof SpanPlan ? ((SpanPlan) cached).toSpanned(imageGetter) : (Spanned) cached;
+    }
+
+    SpanPlan getPlan(final String markdown, final Object options) {
+        final Object cached = cache.get(new Key(markdown, options));
+        return cached instanceof Spanned ? SpanPlan.of((Spanned) cached) : (SpanPlan) cached;
+    }
+
+    /**
+     * Caches an immutable copy of the rendered text and returns it. A compact cache caches its plan and returns the
+     * text itself.
+     */
+    Spanned put(final String markdown, final Object options, final Spanned rendered) {
+        if (compact) {
+            cache.put(new Key(markdown, options), SpanPlan.of(rendered));
+            return rendered;
+        }
+        final Spanned immutable = rendered instanceof SpannedString ? rendered : new SpannedString(rendered);
+        cache.put(new Key(markdown, options), immutable);
+        return immutable;
+    }
+
+    /**
+     * Caches the plan of a compact cache.
+     */
+    void putPlan(final String markdown, final Object options, final SpanPlan plan) {
+        cache.put(new Key(markdown, options), plan);
+    }
+
+    /**
+     * Drops all cached texts.
+     */
+    public void evictAll() {
+        cache.evictAll();
+    }
+
+    /**
+     * Summed weight of all cached texts.
+     */
+    public int weight() {
+        return cache.weight();
+    }
+
+    public int maxWeight() {
+        return cache.maxWeight();
+    }
+
+    public int hitCount() {
+        return cache.hitCount();
+    }
+
+    public int missCount() {
+        return cache.missCount();
+    }
+
+    public int evictionCount() {
+        return cache.evictionCount();
+    }
+
+    @Override
+    public String toString() {
+        return "RenderCache[compact=" + compact + ", weight=" + weight() + "/" + maxWeight() + ", hits=" + hitCount()
+                + ", misses=" + missCount() + ", evictions=" + evictionCount() + "]";
+    }
+
+    /**
+     * A Markdown source together with the options it was rendered with.
+     */
+    private static final class Key {
+        private final String markdown;
+        private final Object options;
+
+        Key(final String markdown, final Object options) {
+            this.markdown = markdown;
+            this.options = options;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return markdown.equals(other.markdown) && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * markdown.hashCode() + options.hashCode();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Receives timings and sizes of every text a {@link MarkdownRenderer} renders, e.g. to report render latency.
+ * <p>
+ * Called on the rendering thread, right after each stage, so implementations should be quick. Results served from a
+ * {@link RenderCache} are not reported. With {@link #NONE}, the default, renderers neither take timings nor count
+ * spans.
+ */
+public interface RenderListener {
+
+    /**
+     * The stages of rendering. {@link Markdown.Engine#MARKDOWN4J} goes through {@link #MARKDOWN_TO_HTML},
+     * {@link #REWRITE_TAGS}, {@link #HTML_TO_SPANNED} and {@link #TRIM}, {@link Markdown.Engine#DIRECT} through
+     * {@link #MARKDOWN_TO_SPANNED} and {@link #TRIM}.
+     */
+    enum Stage {
+        MARKDOWN_TO_HTML,
+        REWRITE_TAGS,
+        HTML_TO_SPANNED,
+        MARKDOWN_TO_SPANNED,
+        TRIM
+    }
+
+    /**
+     * Reports nothing.
+     */
+    RenderListener NONE = new RenderListener() {
+        @Override
+        public void onStage(final Stage stage, final long nanos) {
+        }
+
+        @Override
+        public void onRendered(final int markdownLength, final int spanCount, final long nanos) {
+        }
+    };
+
+    /**
+     * @param nanos time the stage took
+     */
+    void onStage(Stage stage, long nanos);
+
+    /**
+     * Called once a text is rendered, after its stages. Not called if the Markdown could not be processed.
+     *
+     * @param markdownLength length of the Markdown in characters
+     * @param spanCount      number of spans of the rendered text
+     * @param nanos          time all stages took
+     */
+    void onRendered(int markdownLength, int spanCount, long nanos);
+}
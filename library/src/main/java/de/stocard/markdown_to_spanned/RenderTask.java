@@ -0,0 +1,148 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Spanned;
+import android.util.Log;
+import android.widget.TextView;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Renders Markdown in the background and sets the result on a {@link TextView}.
+ * <p>
+ * Every view has at most one pending task. Binding a view again cancels its pending task: if it has not started yet
+ * it is skipped, otherwise its result is discarded. Tasks are started, cancelled and delivered on the main thread;
+ * only the rendering itself runs on the executor.
+ */
+final class RenderTask implements Runnable {
+    /**
+     * Pending task of every view, only accessed on the main thread. Weak, so pending tasks don't leak their views.
+     */
+    private static final Map<TextView, RenderTask> PENDING = new WeakHashMap<TextView, RenderTask>();
+
+    private static Handler mainHandler;
+
+    private final MarkdownRenderer          renderer;
+    private final String                    markdown;
+    private final WeakReference<TextView>   view;
+    private final MarkdownRenderer.Callback callback;
+
+    private volatile boolean cancelled;
+    private Spanned          result;
+
+    private RenderTask(final MarkdownRenderer renderer, final String markdown, final TextView view,
+                       final MarkdownRenderer.Callback callback) {
+        this.renderer = renderer;
+        this.markdown = markdown;
+        this.view = new WeakReference<TextView>(view);
+        this.callback = callback;
+    }
+
+    /**
+     * Cancels the pending task of the view and starts rendering the Markdown into it. Results already cached are set
+     * right away, otherwise the placeholder is shown until the rendered text is ready.
+     *
+     * @param placeholder shown while rendering, or null to keep the current text
+     */
+    static void start(final MarkdownRenderer renderer, final String markdown, final TextView view,
+                      final CharSequence placeholder, final Executor executor,
+                      final MarkdownRenderer.Callback callback) {
+        cancel(view);
+
+        final Spanned cached = renderer.cached(markdown);
+        if (cached != null) {
+            deliver(view, cached, callback);
+            return;
+        }
+        if (placeholder != null) {
+            view.setText(placeholder);
+        }
+        final RenderTask task = new RenderTask(renderer, markdown, view, callback);
+        PENDING.put(view, task);
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            PENDING.remove(view);
+            throw e;
+        }
+    }
+
+    /**
+     * Cancels the pending task of the view, if any.
+     */
+    static void cancel(final TextView view) {
+        final RenderTask pending = PENDING.remove(view);
+        if (pending != null) {
+            pending.cancelled = true;
+        }
+    }
+
+    @Override
+    public void run() {
+        if (cancelled || view.get() == null) {
+            return;
+        }
+        try {
+            result = renderer.render(markdown);
+        } catch (RuntimeException e) {
+            Log.e(Config.TAG, "could not render text", e);
+        } catch (StackOverflowError e) {
+            Log.e(Config.TAG, "text is nested too deeply", e);
+        }
+        // delivered even if rendering failed, so the callback learns that the placeholder stays
+        if (!cancelled) {
+            getMainHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    finish();
+                }
+            });
+        }
+    }
+
+    private void finish() {
+        final TextView target = view.get();
+        if (cancelled || target == null || PENDING.get(target) != this) {
+            return;
+        }
+        PENDING.remove(target);
+        deliver(target, result, callback);
+    }
+
+    private static void deliver(final TextView view, final Spanned spanned, final MarkdownRenderer.Callback callback) {
+        if (spanned != null) {
+            view.setText(spanned);
+        }
+        view.setMovementMethod(Markdown.LocalLinkMovementMethod.getInstance());
+        if (callback != null) {
+            callback.onRendered(view, spanned);
+        }
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (mainHandler == null) {
+            mainHandler = new Handler(Looper.getMainLooper());
+        }
+        return mainHandler;
+    }
+}
@@ -0,0 +1,424 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.drawable.Drawable;
+import android.text.Html;
+import android.text.Layout;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.AlignmentSpan;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.BulletSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.ImageSpan;
+import android.text.style.LeadingMarginSpan;
+import android.text.style.QuoteSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.StyleSpan;
+import android.text.style.SubscriptSpan;
+import android.text.style.SuperscriptSpan;
+import android.text.style.TypefaceSpan;
+import android.text.style.URLSpan;
+import android.text.style.UnderlineSpan;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A rendered text described by plain data: the characters plus parallel int arrays holding the start, end, flags,
+ * type and parameter of every span.
+ * <p>
+ * Plans are much smaller than the span objects they describe, can be compared with {@link #equals} and written to
+ * and read from a {@link ByteBuffer}. {@link #toSpanned} creates the actual spans, e.g. right before the text is set on
+ * a view. Plans are immutable and may be shared between threads.
+ * <p>
+ * The spans produced by both {@link Markdown.Engine}s are described as data. Any other span is kept as the object
+ * itself, which makes the plan {@linkplain #isSerializable() unserializable}.
+ */
+public final class SpanPlan {
+    private static final int MAGIC   = 0x4d445350; // "MDSP"
+    private static final int VERSION = 1;
+
+    private static final int TYPE_OBJECT           = 0;
+    private static final int TYPE_STYLE            = 1;
+    private static final int TYPE_RELATIVE_SIZE    = 2;
+    private static final int TYPE_STRIKETHROUGH    = 3;
+    private static final int TYPE_UNDERLINE        = 4;
+    private static final int TYPE_SUPERSCRIPT      = 5;
+    private static final int TYPE_SUBSCRIPT        = 6;
+    private static final int TYPE_FOREGROUND_COLOR = 7;
+    private static final int TYPE_BACKGROUND_COLOR = 8;
+    private static final int TYPE_TYPEFACE         = 9;
+    private static final int TYPE_URL              = 10;
+    private static final int TYPE_IMAGE            = 11;
+    private static final int TYPE_QUOTE            = 12;
+    private static final int TYPE_BULLET           = 13;
+    private static final int TYPE_LEADING_MARGIN   = 14;
+    private static final int TYPE_ALIGNMENT        = 15;
+
+    private static final Layout.Alignment[] ALIGNMENTS = Layout.Alignment.values();
+
+    private final String   text;
+    private final int[]    starts;
+    private final int[]    ends;
+    private final int[]    flags;
+    private final int[]    types;
+    /**
+     * Depending on the type: the value itself, or an index into {@link #strings} or {@link #objects}.
+     */
+    private final int[]    params;
+    private final String[] strings;
+    private final Object[] objects;
+
+    private SpanPlan(final String text, final int[] starts, final int[] ends, final int[] flags, final int[] types,
+                     final int[] params, final String[] strings, final Object[] objects) {
+        this.text = text;
+        this.starts = starts;
+        this.ends = ends;
+        this.flags = flags;
+        this.types = types;
+        this.params = params;
+        this.strings = strings;
+        this.objects = objects;
+    }
+
+    /**
+     * Describes the text and its spans.
+     */
+    public static SpanPlan of(final Spanned spanned) {
+        final Object[] spans = spanned.getSpans(0, spanned.length(), Object.class);
+        final int count = spans.length;
+        final int[] starts = new int[count];
+        final int[] ends = new int[count];
+        final int[] flags = new int[count];
+        final int[] types = new int[count];
+        final int[] params = new int[count];
+        final Map<String, Integer> stringIndices = new HashMap<String, Integer>();
+        final List<String> strings = new ArrayList<String>();
+        final List<Object> objects = new ArrayList<Object>();
+
+        for (int i = 0; i < count; i++) {
+            final Object span = spans[i];
+            starts[i] = spanned.getSpanStart(span);
+            ends[i] = spanned.getSpanEnd(span);
+            flags[i] = spanned.getSpanFlags(span);
+
+            final Class<?> kind = span.getClass();
+            if (kind == StyleSpan.class) {
+                types[i] = TYPE_STYLE;
+                params[i] = ((StyleSpan) span).getStyle();
+            } else if (kind == RelativeSizeSpan.class) {
+                types[i] = TYPE_RELATIVE_SIZE;
+                params[i] = Float.floatToIntBits(((RelativeSizeSpan) span).getSizeChange());
+            } else if (kind == StrikethroughSpan.class) {
+                types[i] = TYPE_STRIKETHROUGH;
+            } else if (kind == UnderlineSpan.class) {
+                types[i] = TYPE_UNDERLINE;
+            } else if (kind == SuperscriptSpan.class) {
+                types[i] = TYPE_SUPERSCRIPT;
+            } else if (kind == SubscriptSpan.class) {
+                types[i] = TYPE_SUBSCRIPT;
+            } else if (kind == ForegroundColorSpan.class) {
+                types[i] = TYPE_FOREGROUND_COLOR;
+                params[i] = ((ForegroundColorSpan) span).getForegroundColor();
+            } else if (kind == BackgroundColorSpan.class) {
+                types[i] = TYPE_BACKGROUND_COLOR;
+                params[i] = ((BackgroundColorSpan) span).getBackgroundColor();
+            } else if (kind == TypefaceSpan.class && ((TypefaceSpan) span).getFamily() != null) {
+                types[i] = TYPE_TYPEFACE;
+                params[i] = index(((TypefaceSpan) span).getFamily(), stringIndices, strings);
+            } else if (kind == URLSpan.class && ((URLSpan) span).getURL() != null) {
+                types[i] = TYPE_URL;
+                params[i] = index(((URLSpan) span).getURL(), stringIndices, strings);
+            } else if (kind == ImageSpan.class && ((ImageSpan) span).getSource() != null) {
+                types[i] = TYPE_IMAGE;
+                params[i] = index(((ImageSpan) span).getSource(), stringIndices, strings);
+            } else if (kind == QuoteSpan.class) {
+                types[i] = TYPE_QUOTE;
+                params[i] = ((QuoteSpan) span).getColor();
+            } else if (kind == BulletSpan.class) {
+                // the gap width has no getter before API 28, but adds up with the bullet to the leading margin
+                types[i] = TYPE_BULLET;
+                params[i] = ((BulletSpan) span).getLeadingMargin(true) - BulletMargin.WITHOUT_GAP;
+            } else if (kind == LeadingMarginSpan.Standard.class && ((LeadingMarginSpan) span).getLeadingMargin(true)
+                    == ((LeadingMarginSpan) span).getLeadingMargin(false)) {
+                types[i] = TYPE_LEADING_MARGIN;
+                params[i] = ((LeadingMarginSpan) span).getLeadingMargin(true);
+            } else if (kind == AlignmentSpan.Standard.class && ((AlignmentSpan) span).getAlignment() != null) {
+                types[i] = TYPE_ALIGNMENT;
+                params[i] = ((AlignmentSpan) span).getAlignment().ordinal();
+            } else {
+                types[i] = TYPE_OBJECT;
+                params[i] = objects.size();
+                objects.add(span);
+            }
+        }
+        return new SpanPlan(spanned.toString(), starts, ends, flags, types, params,
+                strings.toArray(new String[strings.size()]), objects.toArray());
+    }
+
+    private static int index(final String string, final Map<String, Integer> indices, final List<String> strings) {
+        Integer index = indices.get(string);
+        if (index == null) {
+            index = strings.size();
+            indices.put(string, index);
+            strings.add(string);
+        }
+        return index;
+    }
+
+    /**
+     * Creates the described text with new span objects.
+     *
+     * @param imageGetter loads the drawables of images, may be null. Images without a drawable keep their object
+     *                    replacement character but get no span.
+     */
+    public Spanned toSpanned(final Html.ImageGetter imageGetter) {
+        final SpannableString spanned = new SpannableString(text);
+        for (int i = 0; i < types.length; i++) {
+            final Object span = createSpan(i, imageGetter);
+            if (span != null) {
+                spanned.setSpan(span, starts[i], ends[i], flags[i]);
+            }
+        }
+        return spanned;
+    }
+
+    private Object createSpan(final int i, final Html.ImageGetter imageGetter) {
+        final int param = params[i];
+        switch (types[i]) {
+            case TYPE_STYLE:
+                return new StyleSpan(param);
+            case TYPE_RELATIVE_SIZE:
+                return new RelativeSizeSpan(Float.intBitsToFloat(param));
+            case TYPE_STRIKETHROUGH:
+                return new StrikethroughSpan();
+            case TYPE_UNDERLINE:
+                return new UnderlineSpan();
+            case TYPE_SUPERSCRIPT:
+                return new SuperscriptSpan();
+            case TYPE_SUBSCRIPT:
+                return new SubscriptSpan();
+            case TYPE_FOREGROUND_COLOR:
+                return new ForegroundColorSpan(param);
+            case TYPE_BACKGROUND_COLOR:
+                return new BackgroundColorSpan(param);
+            case TYPE_TYPEFACE:
+                return new TypefaceSpan(strings[param]);
+            case TYPE_URL:
+                return new URLSpan(strings[param]);
+            case TYPE_IMAGE:
+                final Drawable drawable = imageGetter == null ? null : imageGetter.getDrawable(strings[param]);
+                return drawable == null ? null : new ImageSpan(drawable, strings[param]);
+            case TYPE_QUOTE:
+                return new QuoteSpan(param);
+            case TYPE_BULLET:
+                return new BulletSpan(param);
+            case TYPE_LEADING_MARGIN:
+                return new LeadingMarginSpan.Standard(param);
+            case TYPE_ALIGNMENT:
+                return new AlignmentSpan.Standard(ALIGNMENTS[param]);
+            default:
+                return objects[param];
+        }
+    }
+
+    /**
+     * The text without spans.
+     */
+    public String text() {
+        return text;
+    }
+
+    public int length() {
+        return text.length();
+    }
+
+    public int spanCount() {
+        return types.length;
+    }
+
+    /**
+     * Summed length of the strings the spans refer to, e.g. URLs.
+     */
+    int stringLength() {
+        int length = 0;
+        for (String string : strings) {
+            length += string.length();
+        }
+        return length;
+    }
+
+    /**
+     * Whether all spans are described as data, which is needed to {@linkplain #writeTo(ByteBuffer) write} the plan.
+     */
+    public boolean isSerializable() {
+        return objects.length == 0;
+    }
+
+    /**
+     * Number of bytes {@link #writeTo} writes.
+     */
+    public int serializedSize() {
+        int size = 4 + 4 + 4 + 2 * text.length() + 4 + 5 * 4 * types.length + 4;
+        for (String string : strings) {
+            size += 4 + 2 * string.length();
+        }
+        return size;
+    }
+
+    /**
+     * Writes the plan at the position of the buffer, which must have {@link #serializedSize()} bytes remaining.
+     *
+     * @throws IllegalStateException if the plan is not {@linkplain #isSerializable() serializable}
+     */
+    public void writeTo(final ByteBuffer buffer) {
+        if (!isSerializable()) {
+            throw new IllegalStateException("plan holds spans that can't be serialized: " + Arrays.toString(objects));
+        }
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        putString(buffer, text);
+        buffer.putInt(types.length);
+        putInts(buffer, starts);
+        putInts(buffer, ends);
+        putInts(buffer, flags);
+        putInts(buffer, types);
+        putInts(buffer, params);
+        buffer.putInt(strings.length);
+        for (String string : strings) {
+            putString(buffer, string);
+        }
+    }
+
+    /**
+     * Reads a plan written by {@link #writeTo} from the position of the buffer.
+     *
+     * @throws IllegalArgumentException if the buffer does not hold a plan of this version
+     */
+    public static SpanPlan readFrom(final ByteBuffer buffer) {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("not a span plan");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("unsupported span plan version " + version);
+        }
+        final String text = getString(buffer);
+        final int count = buffer.getInt();
+        final int[] starts = getInts(buffer, count);
+        final int[] ends = getInts(buffer, count);
+        final int[] flags = getInts(buffer, count);
+        final int[] types = getInts(buffer, count);
+        final int[] params = getInts(buffer, count);
+        final String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = getString(buffer);
+        }
+
+        for (int i = 0; i < count; i++) {
+            final boolean validParam = types[i] == TYPE_TYPEFACE || types[i] == TYPE_URL || types[i] == TYPE_IMAGE
+                    ? params[i] >= 0 && params[i] < strings.length
+                    : types[i] != TYPE_ALIGNMENT || params[i] >= 0 && params[i] < ALIGNMENTS.length;
+            if (types[i] <= TYPE_OBJECT || types[i] > TYPE_ALIGNMENT || !validParam
+                    || starts[i] < 0 || starts[i] > ends[i] || ends[i] > text.length()) {
+                throw new IllegalArgumentException("invalid span " + i + " in span plan");
+            }
+        }
+        return new SpanPlan(text, starts, ends, flags, types, params, strings, new Object[0]);
+    }
+
+    private static void putString(final ByteBuffer buffer, final String string) {
+        final int length = string.length();
+        buffer.putInt(length);
+        for (int i = 0; i < length; i++) {
+            buffer.putChar(string.charAt(i));
+        }
+    }
+
+    private static String getString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining() / 2) {
+            throw new IllegalArgumentException("invalid string length " + length + " in span plan");
+        }
+        final char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        buffer.position(buffer.position() + 2 * length);
+        return new String(chars);
+    }
+
+    private static void putInts(final ByteBuffer buffer, final int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + 4 * values.length);
+    }
+
+    private static int[] getInts(final ByteBuffer buffer, final int count) {
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IllegalArgumentException("invalid span count " + count + " in span plan");
+        }
+        final int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * count);
+        return values;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SpanPlan)) {
+            return false;
+        }
+        final SpanPlan other = (SpanPlan) o;
+        return text.equals(other.text)
+                && Arrays.equals(starts, other.starts)
+                && Arrays.equals(ends, other.ends)
+                && Arrays.equals(flags, other.flags)
+                && Arrays.equals(types, other.types)
+                && Arrays.equals(params, other.params)
+                && Arrays.equals(strings, other.strings)
+                && Arrays.equals(objects, other.objects);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = text.hashCode();
+        result = 31 * result + Arrays.hashCode(starts);
+        result = 31 * result + Arrays.hashCode(ends);
+        result = 31 * result + Arrays.hashCode(types);
+        result = 31 * result + Arrays.hashCode(params);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SpanPlan[length=" + text.length() + ", spans=" + types.length + "]";
+    }
+
+    /**
+     * Leading margin of a {@link BulletSpan} without gap, created on first use.
+     */
+    private static final class BulletMargin {
+        static final int WITHOUT_GAP = new BulletSpan(0).getLeadingMargin(true);
+    }
+}
@@ -0,0 +1,172 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Html;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Renders Markdown while reading it, for documents too large to be held in memory more than once.
+ * <p>
+ * Every top-level block (paragraph, header, list, code, quote) is rendered as soon as it is complete and handed to a
+ * {@link Listener}; only the lines of the current block are kept. Rendering works like
+ * {@link Markdown.Engine#DIRECT}, except that reference-style links can only use definitions that appear before
+ * them in the document.
+ */
+public final class StreamingRenderer {
+
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Receives the rendered blocks, on the thread reading the document.
+     */
+    public interface Listener {
+        /**
+         * @param rendered the block, preceded by the line breaks separating it from the previous block. All blocks
+         *                 appended to each other make up the rendered document, before trimming.
+         */
+        void onBlock(Spanned rendered);
+    }
+
+    private final DirectRenderer renderer;
+
+    public StreamingRenderer() {
+        this(null);
+    }
+
+    /**
+     * @param imageGetter loads the images of the rendered text, e.g. an {@link ImageGetter}. Without, images are dropped.
+     */
+    public StreamingRenderer(final Html.ImageGetter imageGetter) {
+        renderer = new DirectRenderer(imageGetter);
+    }
+
+    /**
+     * Reads the UTF-8 encoded document to its end and renders it. Does not close the stream.
+     */
+    public void render(final InputStream in, final Listener listener) throws IOException {
+        render(new InputStreamReader(in, "UTF-8"), listener);
+    }
+
+    /**
+     * Reads the document to its end and renders it. Does not close the reader.
+     */
+    public void render(final Reader reader, final Listener listener) throws IOException {
+        final BlockSplitter splitter = new BlockSplitter(new BlockRenderer(listener));
+        final StringBuilder line = new StringBuilder();
+        final char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] == '\n') {
+                    line.append(buffer, start, i - start);
+                    splitter.push(stripCarriageReturn(line));
+                    line.setLength(0);
+                    start = i + 1;
+                }
+            }
+            line.append(buffer, start, read - start);
+        }
+        splitter.push(stripCarriageReturn(line));
+        splitter.finish();
+    }
+
+    /**
+     * Reads the document to its end and appends it to {@code out}, trimmed just like
+     * {@link Markdown#fromMarkdown(String, Markdown.Engine)} trims it. Does not close the reader.
+     */
+    public void renderInto(final Reader reader, final SpannableStringBuilder out) throws IOException {
+        final int where = out.length();
+        render(reader, new Listener() {
+            @Override
+            public void onBlock(final Spanned rendered) {
+                out.append(rendered);
+                int start = where;
+                while (start < out.length() && Character.isWhitespace(out.charAt(start))) {
+                    start++;
+                }
+                out.delete(where, start);
+            }
+        });
+        int end = out.length();
+        while (end > where && Character.isWhitespace(out.charAt(end - 1))) {
+            end--;
+        }
+        out.delete(end, out.length());
+    }
+
+    private static String stripCarriageReturn(final StringBuilder line) {
+        final int length = line.length();
+        return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+    }
+
+    /**
+     * Renders the blocks reported by the {@link BlockSplitter} and separates them like {@link DirectRenderer} does.
+     */
+    private final class BlockRenderer implements BlockSplitter.Listener {
+        private final Listener              listener;
+        private final Map<String, String[]> references = new HashMap<String, String[]>();
+        private final InlineRenderer        inline     = renderer.newInlineRenderer(references);
+
+        private boolean empty = true;
+        /**
+         * Line breaks at the end of the text rendered so far, at most 2.
+         */
+        private int     trailingNewlines;
+
+        BlockRenderer(final Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void onBlock(final BlockSplitter.Block block) {
+            if (block.kind == BlockSplitter.Kind.REFERENCE) {
+                final String[] reference = BlockSplitter.parseReference(block.lines.get(0));
+                references.put(reference[0].toLowerCase(), reference);
+            }
+            if (!DirectRenderer.isRendered(block)) {
+                return;
+            }
+            final SpannableStringBuilder rendered = new SpannableStringBuilder();
+            if (!empty) {
+                for (int i = trailingNewlines; i < 2; i++) {
+                    rendered.append('\n');
+                }
+            }
+            rendered.append(renderer.renderContent(block, inline));
+            if (rendered.length() == 0) {
+                return;
+            }
+            empty = false;
+            int newlines = 0;
+            while (newlines < 2 && newlines < rendered.length()
+                    && rendered.charAt(rendered.length() - 1 - newlines) == '\n') {
+                newlines++;
+            }
+            trailingNewlines = newlines == rendered.length() ? Math.min(2, trailingNewlines + newlines) : newlines;
+            listener.onBlock(rendered);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thread-safe LRU cache bounded by the summed weight of its entries rather than by their number.
+ * <p>
+ * Works like {@code android.util.LruCache}, which is not available on all API levels we support.
+ */
+abstract class WeightedLruCache<K, V> {
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+    private final int maxWeight;
+
+    private int weight;
+    private int hitCount;
+    private int missCount;
+    private int evictionCount;
+
+    /**
+     * @param maxWeight maximum summed weight of all entries
+     */
+    WeightedLruCache(final int maxWeight) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight <= 0");
+        }
+        this.maxWeight = maxWeight;
+    }
+
+    private static final class Entry<V> {
+        final V   value;
+        final int weight;
+
+        Entry(final V value, final int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Weight of an entry, in whatever unit {@code maxWeight} is given. Called once per {@link #put}.
+     */
+    protected abstract int weigh(K key, V value);
+
+    /**
+     * Called for entries that were evicted to make room, outside of the cache lock.
+     */
+    protected void onEvicted(final K key, final V value) {
+    }
+
+    final V get(final K key) {
+        synchronized (this) {
+            final Entry<V> entry = map.get(key);
+            if (entry != null) {
+                hitCount++;
+                return entry.value;
+            }
+            missCount++;
+            return null;
+        }
+    }
+
+    /**
+     * Caches the value, unless it weighs more than the whole cache may.
+     */
+    final void put(final K key, final V value) {
+        final int entryWeight = weigh(key, value);
+        Map<K, V> evicted = null;
+        synchronized (this) {
+            if (entryWeight > maxWeight) {
+                return;
+            }
+            final Entry<V> previous = map.put(key, new Entry<V>(value, entryWeight));
+            weight += entryWeight;
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            final Iterator<Map.Entry<K, Entry<V>>> eldest = map.entrySet().iterator();
+            while (weight > maxWeight && eldest.hasNext()) {
+                final Map.Entry<K, Entry<V>> entry = eldest.next();
+                weight -= entry.getValue().weight;
+                evictionCount++;
+                if (evicted == null) {
+                    evicted = new LinkedHashMap<K, V>();
+                }
+                evicted.put(entry.getKey(), entry.getValue().value);
+                eldest.remove();
+            }
+        }
+        if (evicted != null) {
+            for (Map.Entry<K, V> entry : evicted.entrySet()) {
+                onEvicted(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    final V remove(final K key) {
+        synchronized (this) {
+            final Entry<V> previous = map.remove(key);
+            if (previous == null) {
+                return null;
+            }
+            weight -= previous.weight;
+            return previous.value;
+        }
+    }
+
+    final synchronized void evictAll() {
+        map.clear();
+        weight = 0;
+    }
+
+    final synchronized int weight() {
+        return weight;
+    }
+
+    final int maxWeight() {
+        return maxWeight;
+    }
+
+    final synchronized int hitCount() {
+        return hitCount;
+    }
+
+    final synchronized int missCount() {
+        return missCount;
+    }
+
+    final synchronized int evictionCount() {
+        return evictionCount;
+    }
+}
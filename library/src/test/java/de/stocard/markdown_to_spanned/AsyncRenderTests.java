@@ -0,0 +1,142 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.drawable.Drawable;
+import android.text.Html;
+import android.text.Spanned;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class AsyncRenderTests {
+
+    private QueueExecutor    executor;
+    private MarkdownRenderer renderer;
+    private TextView         view;
+    private List<String>     rendered;
+
+    private final MarkdownRenderer.Callback callback = new MarkdownRenderer.Callback() {
+        @Override
+        public void onRendered(TextView view, Spanned spanned) {
+            rendered.add(spanned == null ? null : spanned.toString());
+        }
+    };
+
+    @Before
+    public void setUp() {
+        executor = new QueueExecutor();
+        renderer = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .executor(executor)
+                .build();
+        view = new TextView(RuntimeEnvironment.application);
+        rendered = new ArrayList<String>();
+    }
+
+    @Test
+    public void testRendersInBackground() throws Exception {
+        renderer.setMarkdownAsync("**markdown**", view, "loading", callback);
+        assertEquals("loading", view.getText().toString());
+        assertTrue(rendered.isEmpty());
+
+        executor.runAll();
+        assertEquals("markdown", view.getText().toString());
+        assertEquals(1, rendered.size());
+    }
+
+    @Test
+    public void testRebindingDiscardsStaleWork() throws Exception {
+        renderer.setMarkdownAsync("first", view, null, callback);
+        renderer.setMarkdownAsync("second", view, null, callback);
+
+        executor.runAll();
+        assertEquals("second", view.getText().toString());
+        assertEquals(1, rendered.size());
+        assertEquals("second", rendered.get(0));
+    }
+
+    @Test
+    public void testSetMarkdownCancelsPendingWork() throws Exception {
+        renderer.setMarkdownAsync("async", view, null, callback);
+        renderer.setMarkdown("sync", view);
+
+        executor.runAll();
+        assertEquals("sync", view.getText().toString());
+        assertTrue(rendered.isEmpty());
+    }
+
+    @Test
+    public void testCachedIsSetImmediately() throws Exception {
+        final MarkdownRenderer cached = renderer.newBuilder().cache(new RenderCache(1000)).build();
+        cached.render("cached");
+
+        cached.setMarkdownAsync("cached", view, "loading", callback);
+        assertEquals("cached", view.getText().toString());
+        assertEquals(1, rendered.size());
+        assertEquals(0, executor.tasks.size());
+    }
+
+    @Test
+    public void testFailureKeepsPlaceholder() throws Exception {
+        MarkdownRenderer failing = renderer.newBuilder()
+                .imageGetter(new Html.ImageGetter() {
+                    @Override
+                    public Drawable getDrawable(String source) {
+                        throw new IllegalStateException("broken image getter");
+                    }
+                })
+                .build();
+
+        failing.setMarkdownAsync("![image](broken)", view, "loading", callback);
+        executor.runAll();
+
+        assertEquals("loading", view.getText().toString());
+        assertEquals(1, rendered.size());
+        assertNull(rendered.get(0));
+    }
+
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            tasks.clear();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.text.Html;
+import android.text.Spanned;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class BatchRenderTests {
+
+    private static final Executor REJECTING = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            throw new RejectedExecutionException();
+        }
+    };
+
+    private static List<String> messages(int count) {
+        List<String> messages = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            messages.add("# Message " + i + "\n\nSome **bold** and *italic* text with a [link](http://stocard.de/" + i
+                    + ").\n\n* one\n* two\n\n> quoted " + i + "\n");
+        }
+        return messages;
+    }
+
+    @Test
+    public void testResultsAreInInputOrder() {
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder().engine(Markdown.Engine.DIRECT).build();
+        List<String> messages = messages(50);
+
+        List<Spanned> results = renderer.renderAll(messages);
+
+        assertEquals(messages.size(), results.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(SpanPlan.of(renderer.render(messages.get(i))), SpanPlan.of(results.get(i)));
+        }
+    }
+
+    @Test
+    public void testConcurrentRenderingMatchesSequential() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (Markdown.Engine engine : Markdown.Engine.values()) {
+                MarkdownRenderer renderer = new MarkdownRenderer.Builder().engine(engine).build();
+                List<String> messages = messages(200);
+
+                List<Spanned> results = renderer.renderAll(messages, pool, 4);
+
+                for (int i = 0; i < messages.size(); i++) {
+                    assertEquals(engine + " " + i, SpanPlan.of(renderer.render(messages.get(i))),
+                            SpanPlan.of(results.get(i)));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testFailuresAreIsolated() {
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .imageGetter(new Html.ImageGetter() {
+                    @Override
+                    public Drawable getDrawable(String source) {
+                        if ("broken".equals(source)) {
+                            throw new IllegalStateException("broken image getter");
+                        }
+                        return new ColorDrawable();
+                    }
+                })
+                .build();
+
+        List<Spanned> results = renderer.renderAll(
+                Arrays.asList("first", "![image](broken)", "third"), REJECTING, 2);
+
+        assertEquals("first", results.get(0).toString());
+        assertNull(results.get(1));
+        assertEquals("third", results.get(2).toString());
+    }
+
+    @Test
+    public void testRejectingExecutorRendersOnCallingThread() {
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder().engine(Markdown.Engine.DIRECT).build();
+
+        List<Spanned> results = renderer.renderAll(messages(10), REJECTING, 3);
+
+        assertEquals(10, results.size());
+        for (Spanned result : results) {
+            assertNotNull(result);
+        }
+    }
+
+    @Test
+    public void testStalledExecutorDoesNotStallBatch() {
+        final List<Runnable> never = new ArrayList<Runnable>();
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder().engine(Markdown.Engine.DIRECT).build();
+
+        List<Spanned> results = renderer.renderAll(messages(10), new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                never.add(command);
+            }
+        }, 3);
+
+        assertEquals(3, never.size());
+        assertEquals(10, results.size());
+        assertNotNull(results.get(9));
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder().build();
+
+        assertTrue(renderer.renderAll(Collections.<String>emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testResultsAreUnmodifiable() {
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder().engine(Markdown.Engine.DIRECT).build();
+
+        try {
+            renderer.renderAll(messages(2)).set(0, null);
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.BulletSpan;
+import android.text.style.QuoteSpan;
+import android.text.style.StyleSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class ChunkedTextTests {
+
+    private static String joined(ChunkedText chunks) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < chunks.size(); i++) {
+            if (i > 0) {
+                text.append('\n');
+            }
+            text.append(chunks.get(i));
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testSplitsAtLineBreaks() {
+        String text = "first paragraph\n\nsecond paragraph\nthird paragraph\n";
+        ChunkedText chunks = ChunkedText.split(new SpannableStringBuilder(text), 10);
+
+        assertEquals(3, chunks.size());
+        assertEquals("first paragraph", chunks.get(0).toString());
+        assertEquals("\nsecond paragraph", chunks.get(1).toString());
+        assertEquals("third paragraph\n", chunks.get(2).toString());
+        assertEquals(text, joined(chunks));
+    }
+
+    @Test
+    public void testShortTextIsOneChunk() {
+        ChunkedText chunks = ChunkedText.split(new SpannableStringBuilder("one\ntwo"));
+
+        assertEquals(1, chunks.size());
+        assertEquals("one\ntwo", chunks.get(0).toString());
+    }
+
+    @Test
+    public void testSpansAreSplitWithTheText() {
+        SpannableStringBuilder text = new SpannableStringBuilder("aaaa\nbbbb\ncccc");
+        StyleSpan bold = new StyleSpan(1);
+        QuoteSpan quote = new QuoteSpan();
+        text.setSpan(bold, 2, 12, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(quote, 0, 10, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        ChunkedText chunks = ChunkedText.split(text, 1);
+
+        assertEquals(3, chunks.size());
+        Spanned first = chunks.get(0);
+        assertEquals(2, first.getSpanStart(bold));
+        assertEquals(4, first.getSpanEnd(bold));
+        assertEquals(0, first.getSpanStart(quote));
+        assertEquals(4, first.getSpanEnd(quote));
+        Spanned second = chunks.get(1);
+        assertEquals(0, second.getSpanStart(bold));
+        assertEquals(4, second.getSpanEnd(bold));
+        assertEquals(0, second.getSpanStart(quote));
+        assertEquals(4, second.getSpanEnd(quote));
+        Spanned third = chunks.get(2);
+        assertEquals(0, third.getSpanStart(bold));
+        assertEquals(2, third.getSpanEnd(bold));
+        // ended with the break before the chunk
+        assertEquals(0, third.getSpans(0, third.length(), QuoteSpan.class).length);
+    }
+
+    @Test
+    public void testListItemsAreNotSplit() {
+        SpannableStringBuilder text = new SpannableStringBuilder("item one\ncontinued\nitem two\n");
+        BulletSpan one = new BulletSpan();
+        text.setSpan(one, 0, 19, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new BulletSpan(), 19, 28, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        ChunkedText chunks = ChunkedText.split(text, 1);
+
+        assertEquals(2, chunks.size());
+        assertEquals("item one\ncontinued", chunks.get(0).toString());
+        assertEquals(0, chunks.get(0).getSpanStart(one));
+        assertEquals("item two\n", chunks.get(1).toString());
+        assertEquals(1, chunks.get(1).getSpans(0, 9, BulletSpan.class).length);
+    }
+
+    @Test
+    public void testRenderedDocument() {
+        StringBuilder markdown = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            markdown.append("## Section ").append(i).append("\n\nSome **bold** text.\n\n")
+                    .append("* first\n* second\n    * nested\n\n> a quote\n\n");
+        }
+        Spanned rendered = Markdown.fromMarkdown(markdown.toString(), Markdown.Engine.DIRECT);
+        int bullets = rendered.getSpans(0, rendered.length(), BulletSpan.class).length;
+
+        ChunkedText chunks = ChunkedText.split(rendered, 200);
+
+        assertTrue(chunks.size() > 10);
+        assertEquals(rendered.toString(), joined(chunks));
+        int chunkBullets = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            Spanned chunk = chunks.get(i);
+            for (BulletSpan bullet : chunk.getSpans(0, chunk.length(), BulletSpan.class)) {
+                assertSame(bullet, rendered.getSpans(0, rendered.length(), BulletSpan.class)[chunkBullets]);
+                chunkBullets++;
+            }
+        }
+        assertEquals(bullets, chunkBullets);
+    }
+}
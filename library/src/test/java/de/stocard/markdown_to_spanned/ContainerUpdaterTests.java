@@ -0,0 +1,121 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Context;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class ContainerUpdaterTests {
+
+    private RecordingView    view;
+    private ContainerUpdater updater;
+
+    @Before
+    public void setUp() {
+        view = new RecordingView(RuntimeEnvironment.application);
+        updater = new ContainerUpdater(view);
+    }
+
+    @Test
+    public void testImagesOfOneFrameAreCoalesced() {
+        for (int i = 0; i < 20; i++) {
+            updater.imageLoaded(false);
+        }
+        assertEquals(1, view.frames.size());
+        assertEquals(0, view.invalidates);
+
+        view.runFrame();
+        assertEquals(1, view.invalidates);
+        assertEquals(0, view.layouts);
+    }
+
+    @Test
+    public void testResizedImageLaysOutOnce() {
+        updater.imageLoaded(false);
+        updater.imageLoaded(true);
+        updater.imageLoaded(false);
+        view.runFrame();
+
+        assertEquals(1, view.layouts);
+        assertEquals(1, view.invalidates);
+    }
+
+    @Test
+    public void testLaterImagesScheduleAnotherFrame() {
+        updater.imageLoaded(true);
+        view.runFrame();
+        updater.imageLoaded(false);
+        assertEquals(1, view.frames.size());
+        view.runFrame();
+
+        assertEquals(1, view.layouts);
+        assertEquals(2, view.invalidates);
+        assertEquals(0, view.frames.size());
+    }
+
+    private static final class RecordingView extends View {
+        final List<Runnable> frames = new ArrayList<Runnable>();
+        int invalidates;
+        int layouts;
+
+        RecordingView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void postOnAnimation(Runnable action) {
+            frames.add(action);
+        }
+
+        @Override
+        public boolean postDelayed(Runnable action, long delayMillis) {
+            frames.add(action);
+            return true;
+        }
+
+        @Override
+        public void invalidate() {
+            invalidates++;
+        }
+
+        @Override
+        public void requestLayout() {
+            layouts++;
+        }
+
+        void runFrame() {
+            List<Runnable> due = new ArrayList<Runnable>(frames);
+            frames.clear();
+            for (Runnable frame : due) {
+                frame.run();
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Spanned;
+import android.text.style.BulletSpan;
+import android.text.style.QuoteSpan;
+import android.text.style.URLSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs all {@link SpanTests} against the {@link Markdown.Engine#DIRECT} engine, which has to produce the same spans.
+ */
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class DirectSpanTests extends SpanTests {
+
+    @Override
+    protected Spanned render(String content) {
+        return Markdown.fromMarkdown(content, Markdown.Engine.DIRECT);
+    }
+
+    @Override
+    protected Spanned render(String content, MarkdownRenderer.CodeBlocks codeBlocks) {
+        return new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .codeBlocks(codeBlocks)
+                .build()
+                .render(content);
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void testDeeplyNestedQuotesAreKeptAsText() throws Exception {
+        Spanned result = render(repeat("> ", 5000) + "text");
+        assertEquals(DirectRenderer.MAX_NESTING, result.getSpans(0, result.length(), QuoteSpan.class).length);
+        assertTrue(result.toString().endsWith("> > text"));
+    }
+
+    @Test
+    public void testDeeplyNestedListsAreKeptAsText() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            content.append(repeat("    ", i)).append("* item ").append(i).append('\n');
+        }
+        Spanned result = render(content.toString());
+        assertEquals(DirectRenderer.MAX_NESTING, result.getSpans(0, result.length(), BulletSpan.class).length);
+        assertTrue(result.toString().endsWith("* item 98\n* item 99"));
+    }
+
+    @Test
+    public void testDeeplyNestedLinksAreKeptAsText() throws Exception {
+        Spanned result = render(repeat("[", 5000) + "x" + repeat("](u)", 5000));
+        assertEquals(DirectRenderer.MAX_NESTING, result.getSpans(0, result.length(), URLSpan.class).length);
+        assertTrue(result.toString().contains("[[x](u)](u)"));
+    }
+}
@@ -0,0 +1,189 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Spanned;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class DiskRenderCacheTests {
+
+    private static final String DOCUMENT = "# Header\n\nSome **bold** and [linked](http://stocard.de) text.\n\n"
+            + "* one\n* two\n";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("md2s", "cache");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        Markdown.setDiskCache(null);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(!directory.exists() || directory.delete());
+    }
+
+    private static MarkdownRenderer renderer(DiskRenderCache cache) {
+        return new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .diskCache(cache)
+                .build();
+    }
+
+    @Test
+    public void testRestoresAcrossInstances() throws Exception {
+        DiskRenderCache cache = new DiskRenderCache(directory, 100000);
+        Spanned rendered = renderer(cache).render(DOCUMENT);
+        assertEquals(1, cache.missCount());
+        assertEquals(1, directory.listFiles().length);
+        assertEquals(directory.listFiles()[0].length(), cache.size());
+
+        // as after a relaunch
+        DiskRenderCache restarted = new DiskRenderCache(directory, 100000);
+        Spanned restored = renderer(restarted).render(DOCUMENT);
+        assertEquals(1, restarted.hitCount());
+        assertEquals(0, restarted.missCount());
+        assertEquals(SpanPlan.of(rendered), SpanPlan.of(restored));
+        assertEquals(SpanPlan.of(rendered), renderer(restarted).renderPlan(DOCUMENT));
+    }
+
+    @Test
+    public void testRestoresLargeTexts() throws Exception {
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            large.append(DOCUMENT).append('\n');
+        }
+        DiskRenderCache cache = new DiskRenderCache(directory, 10000000);
+        Spanned rendered = renderer(cache).render(large.toString());
+        // large enough to be memory-mapped
+        assertTrue(cache.size() > 64 * 1024);
+        Spanned restored = renderer(cache).render(large.toString());
+        assertEquals(1, cache.hitCount());
+        assertEquals(SpanPlan.of(rendered), SpanPlan.of(restored));
+    }
+
+    @Test
+    public void testStaticMethods() throws Exception {
+        DiskRenderCache cache = new DiskRenderCache(directory, 100000);
+        Markdown.setDiskCache(cache);
+        Spanned rendered = Markdown.fromMarkdown(DOCUMENT, Markdown.Engine.DIRECT);
+        Spanned restored = Markdown.fromMarkdown(DOCUMENT, Markdown.Engine.DIRECT);
+        assertEquals(1, cache.hitCount());
+        assertEquals(SpanPlan.of(rendered), SpanPlan.of(restored));
+    }
+
+    @Test
+    public void testKeyedByOptions() throws Exception {
+        DiskRenderCache cache = new DiskRenderCache(directory, 100000);
+        renderer(cache).render(DOCUMENT);
+        renderer(cache).newBuilder().codeBlocks(MarkdownRenderer.CodeBlocks.RAW).build().render(DOCUMENT);
+        assertEquals(2, cache.missCount());
+        assertEquals(0, cache.hitCount());
+        assertEquals(2, directory.listFiles().length);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        // every text is stored in 40 bytes, so two fit
+        DiskRenderCache cache = new DiskRenderCache(directory, 100);
+        MarkdownRenderer renderer = renderer(cache);
+        long now = System.currentTimeMillis();
+
+        renderer.render("aaaaaaaaaa");
+        File first = directory.listFiles()[0];
+        assertEquals(40, first.length());
+        assertTrue(first.setLastModified(now - 20000));
+        renderer.render("bbbbbbbbbb");
+        File second = newFile(first);
+        assertTrue(second.setLastModified(now - 10000));
+
+        // used again, so the second one is the least recently used now
+        renderer.render("aaaaaaaaaa");
+        assertEquals(1, cache.hitCount());
+        renderer.render("cccccccccc");
+        assertEquals(1, cache.evictionCount());
+        assertEquals(80, cache.size());
+        assertTrue(first.exists());
+        assertFalse(second.exists());
+    }
+
+    @Test
+    public void testTooLargeIsNotStored() throws Exception {
+        DiskRenderCache cache = new DiskRenderCache(directory, 20);
+        renderer(cache).render("aaaaaaaaaa");
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.evictionCount());
+    }
+
+    @Test
+    public void testCorruptFileIsReplaced() throws Exception {
+        DiskRenderCache cache = new DiskRenderCache(directory, 100000);
+        Spanned rendered = renderer(cache).render(DOCUMENT);
+        File file = directory.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        Spanned restored = renderer(cache).render(DOCUMENT);
+        assertEquals(2, cache.missCount());
+        assertEquals(SpanPlan.of(rendered), SpanPlan.of(restored));
+        assertEquals(file.length(), cache.size());
+
+        assertEquals(SpanPlan.of(rendered), SpanPlan.of(renderer(cache).render(DOCUMENT)));
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void testEvictAll() throws Exception {
+        DiskRenderCache cache = new DiskRenderCache(directory, 100000);
+        renderer(cache).render(DOCUMENT);
+        cache.evictAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    private File newFile(File... known) {
+        Set<File> files = new HashSet<File>(Arrays.asList(directory.listFiles()));
+        files.removeAll(Arrays.asList(known));
+        assertEquals(1, files.size());
+        return files.iterator().next();
+    }
+}
@@ -0,0 +1,177 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.SpannableStringBuilder;
+import android.text.style.BulletSpan;
+import android.text.style.LeadingMarginSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.TypefaceSpan;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Drives the {@link HTMLTagHandler} the way {@link android.text.Html} does: tags are reported in document order while
+ * the text in between is appended.
+ */
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class HTMLTagHandlerTests {
+
+    private HTMLTagHandler  handler;
+    private CountingBuilder output;
+
+    @Before
+    public void setUp() {
+        handler = new HTMLTagHandler();
+        output = new CountingBuilder();
+    }
+
+    /**
+     * Closing a tag must not look at the spans already in the text, which made documents with many inline code spans
+     * quadratic.
+     */
+    @Test
+    public void testManyCodeSpans() throws Exception {
+        final int count = 10000;
+        for (int i = 0; i < count; i++) {
+            output.append("text ");
+            handler.handleTag(true, HTMLTagHandler.CODE, output, null);
+            output.append("code");
+            handler.handleTag(false, HTMLTagHandler.CODE, output, null);
+        }
+        assertEquals(0, output.scannedSpans);
+
+        final TypefaceSpan[] spans = output.getSpans(0, output.length(), TypefaceSpan.class);
+        assertEquals(count, spans.length);
+        for (TypefaceSpan span : spans) {
+            assertEquals("code", output.subSequence(output.getSpanStart(span), output.getSpanEnd(span)).toString());
+        }
+    }
+
+    @Test
+    public void testNestedTags() throws Exception {
+        output.append("a ");
+        handler.handleTag(true, HTMLTagHandler.STRIKE, output, null);
+        output.append("b ");
+        handler.handleTag(true, HTMLTagHandler.CODE, output, null);
+        output.append("c");
+        handler.handleTag(false, HTMLTagHandler.CODE, output, null);
+        output.append(" d");
+        handler.handleTag(false, HTMLTagHandler.STRIKE_SHORT, output, null);
+
+        final Object code = output.getSpans(0, output.length(), TypefaceSpan.class)[0];
+        assertEquals(4, output.getSpanStart(code));
+        assertEquals(5, output.getSpanEnd(code));
+        final Object strike = output.getSpans(0, output.length(), StrikethroughSpan.class)[0];
+        assertEquals(2, output.getSpanStart(strike));
+        assertEquals(7, output.getSpanEnd(strike));
+    }
+
+    @Test
+    public void testClosingTagWithoutOpeningTag() throws Exception {
+        output.append("text");
+        handler.handleTag(false, HTMLTagHandler.CODE, output, null);
+        assertEquals(0, output.getSpans(0, output.length(), Object.class).length);
+    }
+
+    @Test
+    public void testResetForgetsOpenTags() throws Exception {
+        handler.handleTag(true, HTMLTagHandler.CODE, output, null);
+        output.append("unclosed");
+        handler.reset();
+
+        final CountingBuilder next = new CountingBuilder();
+        next.append("text");
+        handler.handleTag(false, HTMLTagHandler.CODE, next, null);
+        assertEquals(0, next.getSpans(0, next.length(), Object.class).length);
+    }
+
+    /**
+     * Closing a list item must not look at the spans already in the text either.
+     */
+    @Test
+    public void testManyListItems() throws Exception {
+        final int count = 10000;
+        handler.handleTag(true, HTMLTagHandler.UL_TAG, output, null);
+        for (int i = 0; i < count; i++) {
+            handler.handleTag(true, HTMLTagHandler.LI_TAG, output, null);
+            output.append("item");
+            handler.handleTag(false, HTMLTagHandler.LI_TAG, output, null);
+        }
+        handler.handleTag(false, HTMLTagHandler.UL_TAG, output, null);
+        assertEquals(0, output.scannedSpans);
+
+        final BulletSpan[] spans = output.getSpans(0, output.length(), BulletSpan.class);
+        assertEquals(count, spans.length);
+        for (BulletSpan span : spans) {
+            assertEquals("item\n", output.subSequence(output.getSpanStart(span), output.getSpanEnd(span)).toString());
+        }
+    }
+
+    @Test
+    public void testDeeplyNestedLists() throws Exception {
+        final int depth = 1000;
+        for (int i = 0; i < depth; i++) {
+            handler.handleTag(true, i % 2 == 0 ? HTMLTagHandler.UL_TAG : HTMLTagHandler.OL_TAG, output, null);
+            handler.handleTag(true, HTMLTagHandler.LI_TAG, output, null);
+            output.append("item");
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            handler.handleTag(false, HTMLTagHandler.LI_TAG, output, null);
+            handler.handleTag(false, i % 2 == 0 ? HTMLTagHandler.UL_TAG : HTMLTagHandler.OL_TAG, output, null);
+        }
+        assertEquals(0, output.scannedSpans);
+
+        // every item spans itself and all items nested in it
+        final BulletSpan[] bullets = output.getSpans(0, output.length(), BulletSpan.class);
+        assertEquals(depth / 2, bullets.length);
+        for (BulletSpan bullet : bullets) {
+            assertEquals(output.length(), output.getSpanEnd(bullet));
+            assertEquals(0, output.getSpanStart(bullet) % "item\n1. item\n".length());
+        }
+        assertEquals(depth, output.getSpans(0, output.length(), LeadingMarginSpan.Standard.class).length);
+    }
+
+    @Test
+    public void testListItemOutsideOfList() throws Exception {
+        handler.handleTag(true, HTMLTagHandler.LI_TAG, output, null);
+        output.append("item");
+        handler.handleTag(false, HTMLTagHandler.LI_TAG, output, null);
+        handler.handleTag(false, HTMLTagHandler.UL_TAG, output, null);
+        assertEquals(0, output.getSpans(0, output.length(), Object.class).length);
+    }
+
+    /**
+     * Counts the spans returned by {@link #getSpans}.
+     */
+    private static class CountingBuilder extends SpannableStringBuilder {
+        int scannedSpans;
+
+        @Override
+        public <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind) {
+            final T[] spans = super.getSpans(queryStart, queryEnd, kind);
+            scannedSpans += spans.length;
+            return spans;
+        }
+    }
+}
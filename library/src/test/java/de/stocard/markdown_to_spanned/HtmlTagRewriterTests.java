@@ -0,0 +1,150 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class HtmlTagRewriterTests {
+
+    private static final String[] HTML = {
+            "",
+            "<p>no tags to rewrite</p>\n",
+            "<ul>\n<li>one</li>\n<li>two</li>\n</ul>\n",
+            "<ol>\n<li>one\n<ul>\n<li>nested</li>\n</ul></li>\n<li>two</li>\n</ol>\n",
+            "<ul class=\"x\"><li value=\"3\">attributes</li></ul>",
+            "<pre><code>first line\nsecond line\n\nfourth line\n</code></pre>\n",
+            "<p>inline <code>code\nspanning lines</code></p>\n",
+            "<ul>\n<li><pre><code>code\nin list</code></pre></li>\n</ul>\n",
+            "<p><link> and <list> and <olive> are rewritten by prefix as well</p>",
+            "<p>trailing <",
+            "</u></o></l>\n",
+    };
+
+    @Test
+    public void testEqualsLegacyRewrite() throws Exception {
+        for (String html : HTML) {
+            assertEquals(html, legacyCustomizeListTags(legacyWorkaroundCodeBlocks(html)),
+                    HtmlTagRewriter.rewrite(html, MarkdownRenderer.CodeBlocks.SPLIT_LINES));
+            assertEquals(html, legacyCustomizeListTags(html),
+                    HtmlTagRewriter.rewrite(html, MarkdownRenderer.CodeBlocks.RAW));
+        }
+    }
+
+    @Test
+    public void testRewrite() throws Exception {
+        assertEquals("<unorderedlist>\n<listiem>one</listiem>\n</unorderedlist>\n"
+                        + "<orderedlist start=\"2\"><listiem>two</listiem></orderedlist>",
+                HtmlTagRewriter.rewrite("<ul>\n<li>one</li>\n</ul>\n<ol start=\"2\"><li>two</li></ol>",
+                        MarkdownRenderer.CodeBlocks.SPLIT_LINES));
+        assertEquals("<p><code>a</code><br /><code>b</code></p>",
+                HtmlTagRewriter.rewrite("<pre><code>a\nb</code></pre>", MarkdownRenderer.CodeBlocks.SPLIT_LINES));
+        assertEquals("<pre><code>a\nb</code></pre>",
+                HtmlTagRewriter.rewrite("<pre><code>a\nb</code></pre>", MarkdownRenderer.CodeBlocks.RAW));
+        assertEquals("<p>a\nb</p>", HtmlTagRewriter.rewrite("<p>a\nb</p>", MarkdownRenderer.CodeBlocks.SPLIT_LINES));
+    }
+
+    @Test
+    public void testCodeBlock() throws Exception {
+        assertEquals("<p><codeblock>a<br />&nbsp;&nbsp;b<br /><br />c &nbsp;d &nbsp;e</codeblock></p>\n",
+                HtmlTagRewriter.rewrite("<pre><code>a\n  b\n\nc  d  e\n</code></pre>\n",
+                        MarkdownRenderer.CodeBlocks.BLOCK));
+        assertEquals("<p><codeblock>fenced</codeblock></p>",
+                HtmlTagRewriter.rewrite("<pre><code class=\"java\">fenced</code></pre>",
+                        MarkdownRenderer.CodeBlocks.BLOCK));
+        assertEquals("<p>inline <code>code\nspanning lines</code></p>",
+                HtmlTagRewriter.rewrite("<p>inline <code>code\nspanning lines</code></p>",
+                        MarkdownRenderer.CodeBlocks.BLOCK));
+        assertEquals("<unorderedlist>\n<listiem><p><codeblock>code<br />in list</codeblock></p></listiem>\n"
+                        + "</unorderedlist>\n",
+                HtmlTagRewriter.rewrite("<ul>\n<li><pre><code>code\nin list</code></pre></li>\n</ul>\n",
+                        MarkdownRenderer.CodeBlocks.BLOCK));
+    }
+
+    /**
+     * The legacy rewrite failed on more than one code element.
+     */
+    @Test
+    public void testMultipleCodeElements() throws Exception {
+        assertEquals("<p>inline <code>code</code> and\n<code>more</code><br /><code>code</code></p>\n"
+                        + "<p><code>a</code><br /><code>b</code></p>\n",
+                HtmlTagRewriter.rewrite(
+                        "<p>inline <code>code</code> and\n<code>more\ncode</code></p>\n<pre><code>a\nb</code></pre>\n",
+                        MarkdownRenderer.CodeBlocks.SPLIT_LINES));
+    }
+
+    @Test
+    public void testUnchanged() throws Exception {
+        final String html = "<p>nothing <em>to</em> do</p>\n";
+        for (MarkdownRenderer.CodeBlocks codeBlocks : MarkdownRenderer.CodeBlocks.values()) {
+            assertSame(html, HtmlTagRewriter.rewrite(html, codeBlocks));
+            assertNull(HtmlTagRewriter.rewrite(null, codeBlocks));
+        }
+    }
+
+    @Test
+    public void testLargeBuffersAreNotKept() throws Exception {
+        StringBuilder unchanged = new StringBuilder();
+        while (unchanged.length() <= 4 * HtmlTagRewriter.MAX_REUSED_CAPACITY) {
+            unchanged.append("<p>nothing <em>to</em> do</p>\n");
+        }
+        String large = unchanged.toString();
+        assertSame(large, HtmlTagRewriter.rewrite(large, MarkdownRenderer.CodeBlocks.BLOCK));
+        assertTrue(HtmlTagRewriter.bufferCapacity() <= HtmlTagRewriter.MAX_REUSED_CAPACITY);
+
+        String rewritten = HtmlTagRewriter.rewrite(large + "<ul><li>item</li></ul>", MarkdownRenderer.CodeBlocks.BLOCK);
+        assertTrue(rewritten.endsWith("<unorderedlist><listiem>item</listiem></unorderedlist>"));
+        assertTrue(HtmlTagRewriter.bufferCapacity() <= HtmlTagRewriter.MAX_REUSED_CAPACITY);
+    }
+
+    /**
+     * The multi-pass rewrite the single-pass rewriter replaced.
+     */
+    private static String legacyCustomizeListTags(String html) {
+        html = html.replace("<ul", "<" + HTMLTagHandler.UL_TAG);
+        html = html.replace("</ul>", "</" + HTMLTagHandler.UL_TAG + ">");
+        html = html.replace("<ol", "<" + HTMLTagHandler.OL_TAG);
+        html = html.replace("</ol>", "</" + HTMLTagHandler.OL_TAG + ">");
+        html = html.replace("<li", "<" + HTMLTagHandler.LI_TAG);
+        html = html.replace("</li>", "</" + HTMLTagHandler.LI_TAG + ">");
+        return html;
+    }
+
+    private static String legacyWorkaroundCodeBlocks(String html) {
+        html = html.replace("<pre>", "<p>");
+        html = html.replace("</pre>", "</p>");
+        StringBuilder builder = new StringBuilder();
+        int idx = 0;
+        int codeStart;
+        int codeEnd;
+        while ((codeStart = html.indexOf("<code>", idx)) != -1 && (codeEnd = html.indexOf("</code>", idx)) != -1) {
+            builder.append(html.substring(idx, codeStart));
+            builder.append(html.substring(codeStart, codeEnd).replace("\n", "</code><br /><code>"));
+            idx = codeEnd;
+        }
+        builder.append(html.substring(idx));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,135 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class ImageGetterTests {
+
+    private static final int ICON   = 0x7f020001;
+    private static final int SYSTEM = 0x01080001;
+
+    private CountingResources resources;
+    private ImageGetter       imageGetter;
+
+    @Before
+    public void setUp() {
+        final Context base = RuntimeEnvironment.application;
+        resources = new CountingResources(base);
+        Context context = new ContextWrapper(base) {
+            @Override
+            public Resources getResources() {
+                return resources;
+            }
+        };
+        imageGetter = new ImageGetter(context, null);
+    }
+
+    @Test
+    public void testDrawable() {
+        Drawable drawable = imageGetter.getDrawable("drawable://icon");
+
+        assertNotNull(drawable);
+        assertEquals(1, resources.lookups.size());
+        assertEquals("icon", resources.lookups.get(0));
+    }
+
+    @Test
+    public void testStockDrawable() {
+        assertNotNull(imageGetter.getDrawable("drawable://system"));
+        assertEquals(2, resources.lookups.size());
+    }
+
+    @Test
+    public void testRepeatedDrawablesAreResolvedOnce() {
+        Drawable first = imageGetter.getDrawable("drawable://icon");
+        Drawable second = imageGetter.getDrawable("drawable://icon");
+        assertNotNull(imageGetter.getDrawable("drawable://system"));
+        assertNotNull(imageGetter.getDrawable("drawable://system"));
+
+        assertNotNull(second);
+        assertNotSame(first, second);
+        assertEquals(3, resources.lookups.size());
+        assertEquals(2, resources.drawableLoads);
+    }
+
+    @Test
+    public void testMissingDrawablesAreResolvedOnce() {
+        assertNull(imageGetter.getDrawable("drawable://missing"));
+        assertNull(imageGetter.getDrawable("drawable://missing"));
+
+        assertEquals(2, resources.lookups.size());
+        assertEquals(0, resources.drawableLoads);
+    }
+
+    @Test
+    public void testUnknownSource() {
+        assertNull(imageGetter.getDrawable("file:///sdcard/image.png"));
+        assertEquals(0, resources.lookups.size());
+    }
+
+    /**
+     * Knows the drawables "icon" of the app and "system" of Android, counts how often they are looked up and loaded.
+     */
+    @SuppressWarnings("deprecation")
+    private static final class CountingResources extends Resources {
+        final List<String> lookups = new ArrayList<String>();
+        int drawableLoads;
+
+        CountingResources(Context base) {
+            super(base.getAssets(), base.getResources().getDisplayMetrics(), base.getResources().getConfiguration());
+        }
+
+        @Override
+        public int getIdentifier(String name, String defType, String defPackage) {
+            lookups.add(name);
+            if ("icon".equals(name) && !"android".equals(defPackage)) {
+                return ICON;
+            }
+            if ("system".equals(name) && "android".equals(defPackage)) {
+                return SYSTEM;
+            }
+            return 0;
+        }
+
+        @Override
+        public Drawable getDrawable(int id) {
+            drawableLoads++;
+            return new ColorDrawable(id);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Bitmap;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Loads images from a local HTTP server. Downloads are queued and run on the test thread, so every test decides when
+ * they happen.
+ */
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class ImageLoaderTests {
+
+    private static final byte[] IMAGE = new byte[]{(byte) 0x89, 'P', 'N', 'G', 1, 2, 3, 4, 5, 6, 7, 8};
+
+    private final Map<String, byte[]>  images   = new HashMap<String, byte[]>();
+    private final Map<String, Integer> requests = new HashMap<String, Integer>();
+    private final QueueExecutor        executor = new QueueExecutor();
+
+    private HttpServer server;
+    private File       directory;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                synchronized (requests) {
+                    requests.put(path, requestCount(path) + 1);
+                }
+                byte[] image = images.get(path);
+                if (image == null) {
+                    exchange.sendResponseHeaders(404, -1);
+                } else {
+                    exchange.sendResponseHeaders(200, image.length);
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(image);
+                    out.close();
+                }
+                exchange.close();
+            }
+        });
+        server.start();
+
+        directory = File.createTempFile("md2s", "images");
+        assertTrue(directory.delete());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        directory.delete();
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private int requestCount(String path) {
+        synchronized (requests) {
+            Integer count = requests.get(path);
+            return count == null ? 0 : count;
+        }
+    }
+
+    private ImageLoader.Builder loader() {
+        return new ImageLoader.Builder().executor(executor).timeouts(2000, 2000);
+    }
+
+    @Test
+    public void testLoad() {
+        images.put("/a.png", IMAGE);
+        ImageLoader loader = loader().build();
+        Recorder recorder = new Recorder();
+
+        loader.load(url("/a.png"), recorder);
+        assertEquals(1, executor.runAll());
+
+        assertEquals(1, recorder.bitmaps.size());
+        assertNotNull(recorder.bitmaps.get(0));
+        assertEquals(url("/a.png"), recorder.urls.get(0));
+        assertEquals(1, requestCount("/a.png"));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneDownload() {
+        images.put("/a.png", IMAGE);
+        ImageLoader loader = loader().build();
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+
+        loader.load(url("/a.png"), first);
+        loader.load(url("/a.png"), second);
+        assertEquals(1, executor.runAll());
+
+        assertEquals(1, requestCount("/a.png"));
+        assertEquals(1, first.bitmaps.size());
+        assertEquals(1, second.bitmaps.size());
+        assertSame(first.bitmaps.get(0), second.bitmaps.get(0));
+    }
+
+    @Test
+    public void testMemoryCache() {
+        images.put("/a.png", IMAGE);
+        ImageLoader loader = loader().build();
+        assertNull(loader.getCached(url("/a.png")));
+
+        loader.load(url("/a.png"), new Recorder());
+        executor.runAll();
+        Bitmap cached = loader.getCached(url("/a.png"));
+        assertNotNull(cached);
+        assertEquals(cached.getRowBytes() * cached.getHeight(), loader.memoryCacheSize());
+
+        Recorder recorder = new Recorder();
+        loader.load(url("/a.png"), recorder);
+        assertEquals(0, executor.runAll());
+        assertSame(cached, recorder.bitmaps.get(0));
+        assertEquals(1, requestCount("/a.png"));
+    }
+
+    @Test
+    public void testMemoryCacheIsBoundedInBytes() {
+        images.put("/a.png", IMAGE);
+        images.put("/b.png", IMAGE);
+        ImageLoader loader = loader().build();
+        loader.load(url("/a.png"), new Recorder());
+        executor.runAll();
+        int size = loader.memoryCacheSize();
+
+        loader = loader().memoryCacheSize(size).build();
+        loader.load(url("/a.png"), new Recorder());
+        loader.load(url("/b.png"), new Recorder());
+        executor.runAll();
+
+        assertEquals(size, loader.memoryCacheSize());
+        assertNull(loader.getCached(url("/a.png")));
+        assertNotNull(loader.getCached(url("/b.png")));
+    }
+
+    @Test
+    public void testDiskCache() {
+        images.put("/a.png", IMAGE);
+        loader().diskCache(directory, 1024).build().load(url("/a.png"), new Recorder());
+        executor.runAll();
+        assertEquals(1, requestCount("/a.png"));
+
+        // a new loader, as after a restart, finds the image on disk
+        images.clear();
+        Recorder recorder = new Recorder();
+        loader().diskCache(directory, 1024).build().load(url("/a.png"), recorder);
+        executor.runAll();
+
+        assertNotNull(recorder.bitmaps.get(0));
+        assertEquals(1, requestCount("/a.png"));
+    }
+
+    @Test
+    public void testFailuresAreNotCached() {
+        ImageLoader loader = loader().diskCache(directory, 1024).build();
+        Recorder recorder = new Recorder();
+
+        loader.load(url("/missing.png"), recorder);
+        executor.runAll();
+        assertEquals(1, recorder.bitmaps.size());
+        assertNull(recorder.bitmaps.get(0));
+        assertNull(loader.getCached(url("/missing.png")));
+
+        images.put("/missing.png", IMAGE);
+        loader.load(url("/missing.png"), recorder);
+        executor.runAll();
+        assertNotNull(recorder.bitmaps.get(1));
+        assertEquals(2, requestCount("/missing.png"));
+    }
+
+    @Test
+    public void testTooLargeImage() {
+        images.put("/large.png", new byte[2048]);
+        ImageLoader loader = loader().maxImageBytes(1024).build();
+        Recorder recorder = new Recorder();
+
+        loader.load(url("/large.png"), recorder);
+        executor.runAll();
+
+        assertNull(recorder.bitmaps.get(0));
+    }
+
+    @Test
+    public void testUnreachableServer() {
+        String url = url("/a.png");
+        server.stop(0);
+        Recorder recorder = new Recorder();
+
+        loader().build().load(url, recorder);
+        executor.runAll();
+
+        assertNull(recorder.bitmaps.get(0));
+    }
+
+    @Test
+    public void testCalculateInSampleSize() {
+        assertEquals(1, ImageLoader.calculateInSampleSize(1000, 0));
+        assertEquals(1, ImageLoader.calculateInSampleSize(1000, 1000));
+        assertEquals(1, ImageLoader.calculateInSampleSize(1000, 2000));
+        assertEquals(1, ImageLoader.calculateInSampleSize(1000, 501));
+        assertEquals(2, ImageLoader.calculateInSampleSize(1000, 500));
+        assertEquals(2, ImageLoader.calculateInSampleSize(1000, 300));
+        assertEquals(4, ImageLoader.calculateInSampleSize(4000, 1000));
+        assertEquals(8, ImageLoader.calculateInSampleSize(4000, 480));
+        assertEquals(2048, ImageLoader.calculateInSampleSize(4000, 1));
+    }
+
+    @Test
+    public void testImagesAreCachedPerWidth() {
+        images.put("/a.png", IMAGE);
+        ImageLoader loader = loader().maxWidth(1000).build();
+
+        loader.load(url("/a.png"), 300, new Recorder());
+        loader.load(url("/a.png"), new Recorder());
+        // wider than the loader's maximum, so decoded for the maximum
+        loader.load(url("/a.png"), 5000, new Recorder());
+        assertEquals(2, executor.runAll());
+
+        assertNotNull(loader.getCached(url("/a.png"), 300));
+        assertNotNull(loader.getCached(url("/a.png"), 1000));
+        assertSame(loader.getCached(url("/a.png")), loader.getCached(url("/a.png"), 5000));
+        assertNull(loader.getCached(url("/a.png"), 400));
+    }
+
+    @Test
+    public void testBitmapConfig() {
+        images.put("/a.png", IMAGE);
+        Recorder recorder = new Recorder();
+
+        loader().bitmapConfig(Bitmap.Config.RGB_565).build().load(url("/a.png"), recorder);
+        executor.runAll();
+
+        assertNotNull(recorder.bitmaps.get(0));
+    }
+
+    @Test
+    public void testRejectedDownloadIsNotLeftInFlight() {
+        images.put("/a.png", IMAGE);
+        ImageLoader loader = loader().build();
+        Recorder recorder = new Recorder();
+
+        executor.rejecting = true;
+        loader.load(url("/a.png"), recorder);
+        assertEquals(1, recorder.bitmaps.size());
+        assertNull(recorder.bitmaps.get(0));
+
+        executor.rejecting = false;
+        loader.load(url("/a.png"), recorder);
+        assertEquals(1, executor.runAll());
+        assertEquals(2, recorder.bitmaps.size());
+        assertNotNull(recorder.bitmaps.get(1));
+    }
+
+    private static final class Recorder implements ImageLoader.Callback {
+        final List<String> urls    = new ArrayList<String>();
+        final List<Bitmap> bitmaps = new ArrayList<Bitmap>();
+
+        @Override
+        public void onLoaded(String url, Bitmap bitmap) {
+            urls.add(url);
+            bitmaps.add(bitmap);
+        }
+    }
+
+    private static final class QueueExecutor implements Executor {
+        private final Queue<Runnable> queue = new ArrayDeque<Runnable>();
+
+        /**
+         * Rejects tasks like a shut down executor.
+         */
+        boolean rejecting;
+
+        @Override
+        public void execute(Runnable runnable) {
+            if (rejecting) {
+                throw new RejectedExecutionException();
+            }
+            queue.add(runnable);
+        }
+
+        int runAll() {
+            int count = 0;
+            Runnable next;
+            while ((next = queue.poll()) != null) {
+                next.run();
+                count++;
+            }
+            return count;
+        }
+    }
+}
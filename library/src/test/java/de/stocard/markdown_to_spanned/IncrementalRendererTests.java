@@ -0,0 +1,159 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class IncrementalRendererTests {
+
+    private static final String DOCUMENT = "# Header\n"
+            + "\n"
+            + "Some *emphasized* text with a [link][1] and `code`.\n"
+            + "Second line\n"
+            + "\n"
+            + "* item\n"
+            + "* item with **bold**\n"
+            + "    1. nested\n"
+            + "\n"
+            + "> quoted\n"
+            + "> text\n"
+            + "\n"
+            + "    code block\n"
+            + "    second line\n"
+            + "\n"
+            + "---\n"
+            + "\n"
+            + "```\n"
+            + "fenced\n"
+            + "```\n"
+            + "Setext\n"
+            + "======\n"
+            + "\n"
+            + "[1]: http://example.com\n"
+            + "last paragraph\n";
+
+    private IncrementalRenderer    renderer;
+    private SpannableStringBuilder target;
+
+    @Before
+    public void setUp() {
+        renderer = new IncrementalRenderer();
+        target = new SpannableStringBuilder();
+    }
+
+    @Test
+    public void testTyping() throws Exception {
+        for (int i = 0; i <= DOCUMENT.length(); i++) {
+            assertUpdate(DOCUMENT.substring(0, i));
+        }
+    }
+
+    @Test
+    public void testDeleting() throws Exception {
+        String text = DOCUMENT;
+        while (!text.isEmpty()) {
+            final int middle = text.length() / 2;
+            text = text.substring(0, middle) + text.substring(middle + 1);
+            assertUpdate(text);
+        }
+    }
+
+    @Test
+    public void testInsertingLines() throws Exception {
+        final String[] lines = DOCUMENT.split("\n", -1);
+        for (int i = 0; i < lines.length; i++) {
+            for (String inserted : new String[]{"", "new paragraph", "* new item", "    new code", "> new quote"}) {
+                final StringBuilder text = new StringBuilder();
+                for (int j = 0; j < lines.length; j++) {
+                    if (j == i) {
+                        text.append(inserted).append('\n');
+                    }
+                    text.append(lines[j]).append('\n');
+                }
+                assertUpdate(DOCUMENT);
+                assertUpdate(text.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testRendersChangedBlocksOnly() throws Exception {
+        assertUpdate(DOCUMENT);
+        assertUpdate(DOCUMENT.replace("Second line", "Second, changed line"));
+        assertEquals(1, renderer.lastRenderedBlocks);
+
+        assertUpdate(DOCUMENT);
+        assertUpdate(DOCUMENT.replace("* item\n", "* item\n* new item\n"));
+        assertEquals(1, renderer.lastRenderedBlocks);
+    }
+
+    @Test
+    public void testReferenceChangeRendersAll() throws Exception {
+        assertUpdate(DOCUMENT);
+        assertUpdate(DOCUMENT.replace("http://example.com", "http://example.org"));
+        assertEquals(renderedBlocks(DOCUMENT), renderer.lastRenderedBlocks);
+    }
+
+    @Test
+    public void testReplacesForeignTarget() throws Exception {
+        assertUpdate(DOCUMENT);
+        target.append("edited by someone else");
+        assertUpdate(DOCUMENT.replace("Second line", "Second, changed line"));
+    }
+
+    /**
+     * Number of blocks a complete render of the text renders.
+     */
+    private int renderedBlocks(String markdown) {
+        final IncrementalRenderer fresh = new IncrementalRenderer();
+        fresh.update(markdown, new SpannableStringBuilder());
+        return fresh.lastRenderedBlocks;
+    }
+
+    private void assertUpdate(String markdown) {
+        renderer.update(markdown, target);
+        final Spanned expected = Markdown.fromMarkdown(markdown, Markdown.Engine.DIRECT);
+        assertEquals(markdown, describe(expected), describe(target));
+    }
+
+    /**
+     * The text and its spans, which are sorted as spliced spans are not in rendering order.
+     */
+    private static String describe(Spanned spanned) {
+        final List<String> spans = new ArrayList<String>();
+        for (Object span : spanned.getSpans(0, spanned.length(), Object.class)) {
+            spans.add(spanned.getSpanStart(span) + "-" + spanned.getSpanEnd(span) + " "
+                    + span.getClass().getSimpleName() + " " + spanned.getSpanFlags(span));
+        }
+        Collections.sort(spans);
+        return spanned.toString() + "\n" + spans;
+    }
+}
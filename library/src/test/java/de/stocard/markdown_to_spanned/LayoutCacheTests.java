@@ -0,0 +1,234 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Layout;
+import android.text.TextPaint;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.annotation.RealObject;
+import org.robolectric.shadows.ShadowTextPaint;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE,
+        shadows = LayoutCacheTests.CopyingShadowTextPaint.class)
+public class LayoutCacheTests {
+
+    private QueueExecutor     executor;
+    private MarkdownRenderer  renderer;
+    private LayoutCache       cache;
+    private LayoutCache.Style style;
+    private List<Layout>      delivered;
+
+    private final LayoutCache.Callback callback = new LayoutCache.Callback() {
+        @Override
+        public void onLayout(Layout layout) {
+            delivered.add(layout);
+        }
+    };
+
+    private static TextPaint paint(float textSize) {
+        TextPaint paint = new TextPaint();
+        paint.setTextSize(textSize);
+        return paint;
+    }
+
+    @Before
+    public void setUp() {
+        executor = new QueueExecutor();
+        renderer = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .executor(executor)
+                .build();
+        cache = new LayoutCache(1000);
+        style = new LayoutCache.Style(paint(16));
+        delivered = new ArrayList<Layout>();
+    }
+
+    @Test
+    public void testLayoutsAreCached() {
+        Layout layout = cache.get(renderer, "**bold** text", 300, style);
+
+        assertEquals("bold text", layout.getText().toString());
+        assertEquals(300, layout.getWidth());
+        assertSame(layout, cache.get(renderer, "**bold** text", 300, style));
+        assertSame(layout, cache.getCached(renderer, "**bold** text", 300, new LayoutCache.Style(paint(16))));
+        assertEquals(10, cache.weight());
+    }
+
+    @Test
+    public void testWidthAndStyleAreKeys() {
+        Layout layout = cache.get(renderer, "text", 300, style);
+
+        assertNull(cache.getCached(renderer, "text", 200, style));
+        assertNull(cache.getCached(renderer, "text", 300, new LayoutCache.Style(paint(20))));
+        assertNotSame(layout, cache.get(renderer, "text", 200, style));
+    }
+
+    @Test
+    public void testRendererOptionsAreKeys() {
+        cache.get(renderer, "text", 300, style);
+
+        MarkdownRenderer alike = renderer.newBuilder().build();
+        MarkdownRenderer other = renderer.newBuilder().engine(Markdown.Engine.MARKDOWN4J).build();
+        assertNotNull(cache.getCached(alike, "text", 300, style));
+        assertNull(cache.getCached(other, "text", 300, style));
+    }
+
+    @Test
+    public void testStyleCopiesThePaint() {
+        TextPaint paint = paint(16);
+        LayoutCache.Style copied = new LayoutCache.Style(paint);
+        paint.setTextSize(20);
+
+        assertEquals(style, copied);
+        assertEquals(style.hashCode(), copied.hashCode());
+        assertFalse(style.equals(new LayoutCache.Style(paint)));
+        assertFalse(style.equals(new LayoutCache.Style(paint(16), 1.5f, 0f, true, Layout.Alignment.ALIGN_NORMAL)));
+    }
+
+    @Test
+    public void testTextLocaleIsKey() {
+        TextPaint german = paint(16);
+        german.setTextLocale(Locale.GERMAN);
+        TextPaint japanese = paint(16);
+        japanese.setTextLocale(Locale.JAPANESE);
+
+        assertEquals(new LayoutCache.Style(german), new LayoutCache.Style(german));
+        assertFalse(new LayoutCache.Style(german).equals(new LayoutCache.Style(japanese)));
+    }
+
+    @Test
+    public void testEvictsByTextLength() {
+        LayoutCache small = new LayoutCache(20);
+        small.get(renderer, "0123456789", 300, style);
+        small.get(renderer, "abcdefghij", 300, style);
+
+        assertEquals(1, small.evictionCount());
+        assertNull(small.getCached(renderer, "0123456789", 300, style));
+        assertNotNull(small.getCached(renderer, "abcdefghij", 300, style));
+    }
+
+    @Test
+    public void testPrecomputesInBackground() {
+        cache.precompute(renderer, "*text*", 300, style, callback);
+        assertTrue(delivered.isEmpty());
+
+        executor.runAll();
+        assertEquals(1, delivered.size());
+        assertEquals("text", delivered.get(0).getText().toString());
+
+        cache.precompute(renderer, "*text*", 300, style, callback);
+        assertEquals(0, executor.tasks.size());
+        assertEquals(2, delivered.size());
+        assertSame(delivered.get(0), delivered.get(1));
+    }
+
+    @Test
+    public void testInvalidWidth() {
+        try {
+            cache.get(renderer, "text", 0, style);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testViewLaysOutOnceMeasured() {
+        LayoutView view = new LayoutView(RuntimeEnvironment.application);
+        view.setMarkdown(renderer, "**bold**", cache, style);
+        assertNull(view.getTextLayout());
+        assertEquals(0, executor.tasks.size());
+
+        view.onSizeChanged(300, 0, 0, 0);
+        executor.runAll();
+        assertEquals("bold", view.getTextLayout().getText().toString());
+        assertSame(view.getTextLayout(), cache.getCached(renderer, "**bold**", 300, style));
+    }
+
+    @Test
+    public void testViewDropsLayoutForEarlierWidth() {
+        LayoutView view = new LayoutView(RuntimeEnvironment.application);
+        view.setMarkdown(renderer, "**bold**", cache, style);
+        view.onSizeChanged(300, 0, 0, 0);
+        view.onSizeChanged(200, 0, 300, 0);
+        assertEquals(2, executor.tasks.size());
+
+        // the layout for the earlier width finishes last
+        executor.tasks.get(1).run();
+        executor.tasks.get(0).run();
+        assertEquals(200, view.getTextLayout().getWidth());
+    }
+
+    /**
+     * Robolectric's paint does not implement {@link TextPaint#set}, which styles copy their paint with.
+     */
+    @Implements(TextPaint.class)
+    public static class CopyingShadowTextPaint extends ShadowTextPaint {
+        @RealObject
+        private TextPaint realPaint;
+
+        @Implementation
+        public void set(TextPaint src) {
+            realPaint.setTextSize(src.getTextSize());
+            realPaint.setTypeface(src.getTypeface());
+            realPaint.setColor(src.getColor());
+            realPaint.setTextAlign(src.getTextAlign());
+            realPaint.setAntiAlias(src.isAntiAlias());
+            realPaint.linkColor = src.linkColor;
+            if (src.getTextLocale() != null) {
+                realPaint.setTextLocale(src.getTextLocale());
+            }
+        }
+    }
+
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            for (Runnable task : new ArrayList<Runnable>(tasks)) {
+                task.run();
+            }
+            tasks.clear();
+        }
+    }
+}
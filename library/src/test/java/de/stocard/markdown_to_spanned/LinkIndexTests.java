@@ -0,0 +1,155 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.SpannableString;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.text.style.URLSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class LinkIndexTests {
+
+    @Test
+    public void testFindsLinkAtOffset() {
+        SpannableStringBuilder text = new SpannableStringBuilder("see one, two and three");
+        URLSpan three = new URLSpan("3");
+        URLSpan one = new URLSpan("1");
+        URLSpan two = new URLSpan("2");
+        // set out of order
+        text.setSpan(three, 17, 22, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(one, 4, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(two, 9, 12, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        LinkIndex index = new LinkIndex(text);
+
+        assertEquals(3, index.size());
+        assertNull(index.linkAt(0));
+        assertSame(one, index.linkAt(4));
+        assertSame(one, index.linkAt(7));
+        assertNull(index.linkAt(8));
+        assertSame(two, index.linkAt(10));
+        assertNull(index.linkAt(15));
+        assertSame(three, index.linkAt(22));
+        int found = index.indexAt(10);
+        assertEquals(9, index.start(found));
+        assertEquals(12, index.end(found));
+    }
+
+    @Test
+    public void testMatchesSpanQuery() {
+        StringBuilder markdown = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            markdown.append("text [link ").append(i).append("](http://example.com/").append(i).append(")\n\n");
+        }
+        Spanned rendered = Markdown.fromMarkdown(markdown.toString(), Markdown.Engine.DIRECT);
+
+        LinkIndex index = new LinkIndex(rendered);
+
+        assertEquals(100, index.size());
+        for (int offset = 0; offset <= rendered.length(); offset++) {
+            ClickableSpan[] links = rendered.getSpans(offset, offset, ClickableSpan.class);
+            if (links.length == 0) {
+                assertNull(index.linkAt(offset));
+            } else {
+                ClickableSpan link = index.linkAt(offset);
+                assertTrue(rendered.getSpanStart(link) <= offset && rendered.getSpanEnd(link) >= offset);
+            }
+        }
+    }
+
+    @Test
+    public void testFindsInnermostOfNestedLinks() {
+        SpannableStringBuilder text = new SpannableStringBuilder("outer inner outer");
+        URLSpan outer = new URLSpan("outer");
+        URLSpan inner = new URLSpan("inner");
+        text.setSpan(outer, 0, 17, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(inner, 6, 11, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        LinkIndex index = new LinkIndex(text);
+
+        assertSame(outer, index.linkAt(2));
+        assertSame(inner, index.linkAt(8));
+        assertSame(outer, index.linkAt(14));
+    }
+
+    @Test
+    public void testIndexIsKeptUntilLinksChange() {
+        SpannableString text = new SpannableString("one two");
+        text.setSpan(new URLSpan("1"), 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        LinkIndex index = LinkIndex.of(text);
+        assertSame(index, LinkIndex.of(text));
+        assertNull(index.linkAt(5));
+
+        URLSpan two = new URLSpan("2");
+        text.setSpan(two, 4, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertFalse(index.isValid());
+        LinkIndex changed = LinkIndex.of(text);
+        assertNotSame(index, changed);
+        assertSame(two, changed.linkAt(5));
+        assertEquals(1, text.getSpans(0, text.length(), LinkIndex.Watcher.class).length);
+    }
+
+    @Test
+    public void testIndexIsNotCopied() {
+        SpannableString text = new SpannableString("one");
+        text.setSpan(new URLSpan("1"), 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        LinkIndex.of(text);
+
+        SpannableString copy = new SpannableString(text);
+        assertEquals(0, copy.getSpans(0, copy.length(), LinkIndex.class).length);
+        assertEquals(1, copy.getSpans(0, copy.length(), URLSpan.class).length);
+    }
+
+    @Test
+    public void testCopyBuildsItsOwnIndex() {
+        SpannableString text = new SpannableString("one two");
+        text.setSpan(new URLSpan("1"), 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        LinkIndex index = LinkIndex.of(text);
+
+        SpannableStringBuilder copy = new SpannableStringBuilder(text);
+        LinkIndex copied = LinkIndex.of(copy);
+        assertNotSame(index, copied);
+        assertEquals(1, copy.getSpans(0, copy.length(), LinkIndex.Watcher.class).length);
+
+        // changes to the copy leave the index of the original intact
+        URLSpan two = new URLSpan("2");
+        copy.setSpan(two, 4, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        assertTrue(index.isValid());
+        assertSame(index, LinkIndex.of(text));
+        assertSame(two, LinkIndex.of(copy).linkAt(5));
+    }
+
+    @Test
+    public void testMovementMethodIsSingleton() {
+        assertSame(Markdown.LocalLinkMovementMethod.getInstance(), Markdown.LocalLinkMovementMethod.getInstance());
+    }
+}
@@ -0,0 +1,172 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Spanned;
+import android.widget.TextView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class MarkdownPrefetcherTests {
+
+    private final List<String> items    = new ArrayList<String>();
+    private final List<String> rendered = new ArrayList<String>();
+
+    private MarkdownRenderer renderer;
+
+    private final MarkdownPrefetcher.Source source = new MarkdownPrefetcher.Source() {
+        @Override
+        public int getItemCount() {
+            return items.size();
+        }
+
+        @Override
+        public String getMarkdown(int position) {
+            return items.get(position);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < 100; i++) {
+            items.add("**item** " + i);
+        }
+        renderer = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .renderListener(new RenderListener() {
+                    @Override
+                    public void onStage(Stage stage, long nanos) {
+                    }
+
+                    @Override
+                    public void onRendered(int markdownLength, int spanCount, long nanos) {
+                        rendered.add("rendered");
+                    }
+                })
+                .build();
+    }
+
+    @Test
+    public void testPrefetchesItemsAhead() {
+        MarkdownPrefetcher prefetcher = new MarkdownPrefetcher(renderer, source, 5, 1000);
+
+        prefetcher.onScrolled(0, 9);
+        assertEquals(5, prefetcher.queuedCount());
+        assertFalse(prefetcher.renderQueued());
+        assertEquals(5, rendered.size());
+
+        TextView view = new TextView(RuntimeEnvironment.application);
+        prefetcher.bind(12, view);
+        assertEquals("item 12", view.getText().toString());
+        assertEquals(1, prefetcher.hitCount());
+        assertEquals(0, prefetcher.missCount());
+        assertEquals(5, rendered.size());
+    }
+
+    @Test
+    public void testBudgetLimitsWorkPerIdlePass() {
+        MarkdownPrefetcher prefetcher = new MarkdownPrefetcher(renderer, source, 3, 0);
+        prefetcher.onScrolled(0, 9);
+
+        assertTrue(prefetcher.renderQueued());
+        assertEquals(1, rendered.size());
+        assertTrue(prefetcher.renderQueued());
+        assertFalse(prefetcher.renderQueued());
+        assertEquals(3, rendered.size());
+    }
+
+    @Test
+    public void testDropsItemsScrolledPast() {
+        MarkdownPrefetcher prefetcher = new MarkdownPrefetcher(renderer, source, 4, 0);
+        prefetcher.onScrolled(0, 9);
+        prefetcher.renderQueued();
+
+        // flung far ahead before the idle passes ran
+        prefetcher.onScrolled(50, 59);
+        assertEquals(4, prefetcher.queuedCount());
+        while (prefetcher.renderQueued()) {
+            // render everything still queued
+        }
+        assertEquals(5, rendered.size());
+
+        prefetcher.get(10);
+        assertEquals(1, prefetcher.missCount());
+    }
+
+    @Test
+    public void testPrefetchesBackwardsWhenScrollingUp() {
+        MarkdownPrefetcher prefetcher = new MarkdownPrefetcher(renderer, source, 3, 1000);
+        prefetcher.onScrolled(50, 59);
+        prefetcher.renderQueued();
+
+        prefetcher.onScrolled(40, 49);
+        prefetcher.renderQueued();
+        prefetcher.get(37);
+        prefetcher.get(39);
+
+        assertEquals(2, prefetcher.hitCount());
+        assertEquals(0, prefetcher.missCount());
+    }
+
+    @Test
+    public void testStopsAtTheEnds() {
+        MarkdownPrefetcher prefetcher = new MarkdownPrefetcher(renderer, source, 5, 1000);
+
+        prefetcher.onScrolled(90, 97);
+        assertEquals(2, prefetcher.queuedCount());
+    }
+
+    @Test
+    public void testChangedItemsAreRenderedAgain() {
+        MarkdownPrefetcher prefetcher = new MarkdownPrefetcher(renderer, source, 2, 1000);
+        prefetcher.onScrolled(0, 9);
+        prefetcher.renderQueued();
+
+        items.set(10, "*changed*");
+        Spanned changed = prefetcher.get(10);
+
+        assertEquals("changed", changed.toString());
+        assertEquals(1, prefetcher.missCount());
+        assertSame(changed, prefetcher.get(10));
+    }
+
+    @Test
+    public void testItemsWithoutMarkdown() {
+        items.set(10, null);
+        MarkdownPrefetcher prefetcher = new MarkdownPrefetcher(renderer, source, 2, 1000);
+        prefetcher.onScrolled(0, 9);
+        prefetcher.renderQueued();
+
+        assertNull(prefetcher.get(10));
+        assertEquals(1, prefetcher.hitCount());
+    }
+}
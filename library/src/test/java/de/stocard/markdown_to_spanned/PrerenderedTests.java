@@ -0,0 +1,77 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class PrerenderedTests {
+
+    private static byte[] prerender(String markdown) {
+        SpanPlan plan = Markdown.getRenderer(Markdown.Engine.DIRECT).renderPlan(markdown);
+        ByteBuffer buffer = ByteBuffer.allocate(plan.serializedSize());
+        plan.writeTo(buffer);
+        return buffer.array();
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        String markdown = "# Help\n\nSee the **FAQ** at [stocard.de](http://stocard.de).\n\n* one\n* two\n";
+        SpanPlan read = Prerendered.read(new ByteArrayInputStream(prerender(markdown)));
+        assertEquals(Markdown.getRenderer(Markdown.Engine.DIRECT).renderPlan(markdown), read);
+    }
+
+    @Test
+    public void testReadsLongTexts() throws Exception {
+        StringBuilder markdown = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            markdown.append("paragraph **").append(i).append("**\n\n");
+        }
+        SpanPlan read = Prerendered.read(new ByteArrayInputStream(prerender(markdown.toString())));
+        assertEquals(2000, read.spanCount());
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws Exception {
+        try {
+            Prerendered.read(new ByteArrayInputStream("# Markdown".getBytes("UTF-8")));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void testRejectsTruncatedFiles() throws Exception {
+        byte[] prerendered = prerender("Some **bold** text");
+        try {
+            Prerendered.read(new ByteArrayInputStream(Arrays.copyOf(prerendered, prerendered.length - 1)));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
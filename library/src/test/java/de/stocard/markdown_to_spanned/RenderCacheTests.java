@@ -0,0 +1,108 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.drawable.Drawable;
+import android.text.Html;
+import android.text.Spanned;
+import android.text.SpannedString;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class RenderCacheTests {
+
+    @After
+    public void tearDown() {
+        Markdown.setRenderCache(null);
+    }
+
+    @Test
+    public void testHit() throws Exception {
+        RenderCache cache = new RenderCache(1000);
+        Markdown.setRenderCache(cache);
+        Spanned first = Markdown.fromMarkdown("**markdown**", Markdown.Engine.DIRECT);
+        Spanned second = Markdown.fromMarkdown("**markdown**", Markdown.Engine.DIRECT);
+        assertSame(first, second);
+        assertTrue(first instanceof SpannedString);
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals("markdown".length() + RenderCache.SPAN_WEIGHT, cache.weight());
+    }
+
+    @Test
+    public void testKeyedByOptions() throws Exception {
+        RenderCache cache = new RenderCache(1000);
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .cache(cache)
+                .build();
+        MarkdownRenderer sameOptions = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .cache(cache)
+                .build();
+        MarkdownRenderer otherOptions = renderer.newBuilder()
+                .imageGetter(new Html.ImageGetter() {
+                    @Override
+                    public Drawable getDrawable(String source) {
+                        return null;
+                    }
+                })
+                .build();
+        Spanned first = renderer.render("**markdown**");
+        assertSame(first, sameOptions.render("**markdown**"));
+        assertNotSame(first, otherOptions.render("**markdown**"));
+        assertEquals(2, cache.missCount());
+        assertEquals(1, cache.hitCount());
+    }
+
+    @Test
+    public void testEvictsByWeight() throws Exception {
+        RenderCache cache = new RenderCache(20);
+        Markdown.setRenderCache(cache);
+        Markdown.fromMarkdown("0123456789", Markdown.Engine.DIRECT);
+        Markdown.fromMarkdown("abcdefghij", Markdown.Engine.DIRECT);
+        assertEquals(0, cache.evictionCount());
+        Markdown.fromMarkdown("0123456789", Markdown.Engine.DIRECT);
+        Markdown.fromMarkdown("klmno", Markdown.Engine.DIRECT);
+        assertEquals(1, cache.evictionCount());
+        assertEquals(15, cache.weight());
+        // least recently used entry is gone, the recently used one is still there
+        Markdown.fromMarkdown("0123456789", Markdown.Engine.DIRECT);
+        assertEquals(2, cache.hitCount());
+        Markdown.fromMarkdown("abcdefghij", Markdown.Engine.DIRECT);
+        assertEquals(4, cache.missCount());
+    }
+
+    @Test
+    public void testTooHeavyIsNotCached() throws Exception {
+        RenderCache cache = new RenderCache(5);
+        Markdown.setRenderCache(cache);
+        Markdown.fromMarkdown("0123456789", Markdown.Engine.DIRECT);
+        assertEquals(0, cache.weight());
+        assertEquals(0, cache.evictionCount());
+    }
+}
@@ -0,0 +1,113 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.Spanned;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class RenderListenerTests {
+
+    @After
+    public void tearDown() {
+        Markdown.setRenderListener(null);
+    }
+
+    @Test
+    public void testMarkdown4jStages() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        Markdown.setRenderListener(listener);
+        Spanned spanned = Markdown.fromMarkdown("**markdown**");
+
+        assertEquals(Arrays.asList(RenderListener.Stage.MARKDOWN_TO_HTML, RenderListener.Stage.REWRITE_TAGS,
+                RenderListener.Stage.HTML_TO_SPANNED, RenderListener.Stage.TRIM), listener.stages);
+        assertRendered(listener, "**markdown**", spanned);
+    }
+
+    @Test
+    public void testDirectStages() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        Markdown.setRenderListener(listener);
+        Spanned spanned = Markdown.fromMarkdown("**markdown** and *more*", Markdown.Engine.DIRECT);
+
+        assertEquals(Arrays.asList(RenderListener.Stage.MARKDOWN_TO_SPANNED, RenderListener.Stage.TRIM),
+                listener.stages);
+        assertRendered(listener, "**markdown** and *more*", spanned);
+    }
+
+    @Test
+    public void testCacheHitsAreNotReported() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .cache(new RenderCache(1000))
+                .renderListener(listener)
+                .build();
+        renderer.render("**markdown**");
+        renderer.render("**markdown**");
+        assertEquals(1, listener.rendered);
+    }
+
+    private static void assertRendered(RecordingListener listener, String markdown, Spanned spanned) {
+        assertEquals(1, listener.rendered);
+        assertEquals(markdown.length(), listener.markdownLength);
+        assertEquals(spanned.getSpans(0, spanned.length(), Object.class).length, listener.spanCount);
+        assertTrue(listener.spanCount > 0);
+
+        long stages = 0;
+        for (long nanos : listener.nanos) {
+            assertTrue(nanos >= 0);
+            stages += nanos;
+        }
+        assertEquals(stages, listener.totalNanos);
+    }
+
+    private static class RecordingListener implements RenderListener {
+        final List<Stage> stages = new ArrayList<Stage>();
+        final List<Long>  nanos  = new ArrayList<Long>();
+        int  rendered;
+        int  markdownLength;
+        int  spanCount;
+        long totalNanos;
+
+        @Override
+        public void onStage(Stage stage, long nanos) {
+            stages.add(stage);
+            this.nanos.add(nanos);
+        }
+
+        @Override
+        public void onRendered(int markdownLength, int spanCount, long nanos) {
+            rendered++;
+            this.markdownLength = markdownLength;
+            this.spanCount = spanCount;
+            totalNanos = nanos;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.text.Html;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.text.style.ImageSpan;
+import android.text.style.URLSpan;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs all {@link SpanTests} against texts that went through a serialized {@link SpanPlan}, which has to describe the
+ * spans completely.
+ */
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class SpanPlanTests extends SpanTests {
+
+    private static final String DOCUMENT = "# Header\n\nSome **bold**, *italic*, ~~struck~~ and `code` text with a "
+            + "[link](http://stocard.de) and ![an image](drawable://image).\n\n"
+            + "* one\n* two\n    1. nested\n\n> quote\n\n    code block\n";
+
+    private static final Html.ImageGetter IMAGE_GETTER = new Html.ImageGetter() {
+        @Override
+        public Drawable getDrawable(String source) {
+            return new ColorDrawable();
+        }
+    };
+
+    @Override
+    protected Spanned render(String content) {
+        return roundTrip(SpanPlan.of(Markdown.fromMarkdown(content, Markdown.Engine.DIRECT))).toSpanned(null);
+    }
+
+    @Override
+    protected Spanned render(String content, MarkdownRenderer.CodeBlocks codeBlocks) {
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .codeBlocks(codeBlocks)
+                .build();
+        return roundTrip(SpanPlan.of(renderer.render(content))).toSpanned(null);
+    }
+
+    private static SpanPlan roundTrip(SpanPlan plan) {
+        ByteBuffer buffer = ByteBuffer.allocate(plan.serializedSize());
+        plan.writeTo(buffer);
+        assertEquals(0, buffer.remaining());
+        buffer.flip();
+        SpanPlan read = SpanPlan.readFrom(buffer);
+        assertEquals(0, buffer.remaining());
+        return read;
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .imageGetter(IMAGE_GETTER)
+                .build();
+        SpanPlan plan = renderer.renderPlan(DOCUMENT);
+        assertTrue(plan.isSerializable());
+        assertEquals(plan, roundTrip(plan));
+        assertEquals(plan.hashCode(), roundTrip(plan).hashCode());
+
+        Spanned rendered = renderer.render(DOCUMENT);
+        assertEquals(plan, SpanPlan.of(plan.toSpanned(IMAGE_GETTER)));
+        assertEquals(rendered.toString(), plan.text());
+        assertEquals(rendered.getSpans(0, rendered.length(), Object.class).length, plan.spanCount());
+    }
+
+    @Test
+    public void testImagesAreLoadedWhenMaterialized() throws Exception {
+        SpanPlan plan = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .imageGetter(IMAGE_GETTER)
+                .build()
+                .renderPlan("![an image](drawable://image)");
+
+        Spanned withImages = plan.toSpanned(IMAGE_GETTER);
+        ImageSpan[] images = withImages.getSpans(0, withImages.length(), ImageSpan.class);
+        assertEquals(1, images.length);
+        assertEquals("drawable://image", images[0].getSource());
+
+        Spanned withoutImages = plan.toSpanned(null);
+        assertEquals(withImages.toString(), withoutImages.toString());
+        assertEquals(0, withoutImages.getSpans(0, withoutImages.length(), Object.class).length);
+    }
+
+    @Test
+    public void testUnknownSpansAreKept() throws Exception {
+        ClickableSpan custom = new ClickableSpan() {
+            @Override
+            public void onClick(View widget) {
+            }
+        };
+        SpannableStringBuilder text = new SpannableStringBuilder("custom and url");
+        text.setSpan(custom, 0, 6, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new URLSpan("http://stocard.de"), 11, 14, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+
+        SpanPlan plan = SpanPlan.of(text);
+        assertFalse(plan.isSerializable());
+        Spanned materialized = plan.toSpanned(null);
+        assertSame(custom, materialized.getSpans(0, 6, ClickableSpan.class)[0]);
+        URLSpan url = materialized.getSpans(11, 14, URLSpan.class)[0];
+        assertEquals("http://stocard.de", url.getURL());
+        assertEquals(Spanned.SPAN_INCLUSIVE_INCLUSIVE, materialized.getSpanFlags(url));
+
+        try {
+            plan.writeTo(ByteBuffer.allocate(plan.serializedSize()));
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testEquality() throws Exception {
+        SpanPlan plan = SpanPlan.of(Markdown.fromMarkdown("**bold** text", Markdown.Engine.DIRECT));
+        assertEquals(plan, SpanPlan.of(Markdown.fromMarkdown("**bold** text", Markdown.Engine.DIRECT)));
+        assertNotEquals(plan, SpanPlan.of(Markdown.fromMarkdown("*bold* text", Markdown.Engine.DIRECT)));
+        assertNotEquals(plan, SpanPlan.of(Markdown.fromMarkdown("bold **text**", Markdown.Engine.DIRECT)));
+    }
+
+    @Test
+    public void testRejectsInvalidData() throws Exception {
+        try {
+            SpanPlan.readFrom(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+
+        SpanPlan plan = SpanPlan.of(Markdown.fromMarkdown("**bold** text", Markdown.Engine.DIRECT));
+        ByteBuffer buffer = ByteBuffer.allocate(plan.serializedSize());
+        plan.writeTo(buffer);
+        // the start of the only span, right after magic, version, text and span count
+        buffer.putInt(4 + 4 + 4 + 2 * plan.length() + 4, plan.length() + 1);
+        buffer.flip();
+        try {
+            SpanPlan.readFrom(buffer);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testCompactCache() throws Exception {
+        RenderCache cache = new RenderCache(1000, true);
+        MarkdownRenderer renderer = new MarkdownRenderer.Builder()
+                .engine(Markdown.Engine.DIRECT)
+                .cache(cache)
+                .build();
+        Spanned first = renderer.render("[markdown](http://a.b)");
+        assertEquals("markdown".length() + RenderCache.PLAN_SPAN_WEIGHT + "http://a.b".length(), cache.weight());
+
+        Spanned second = renderer.render("[markdown](http://a.b)");
+        assertEquals(1, cache.hitCount());
+        assertEquals(first.toString(), second.toString());
+        URLSpan[] urls = second.getSpans(0, second.length(), URLSpan.class);
+        assertEquals(1, urls.length);
+        assertEquals("http://a.b", urls[0].getURL());
+
+        assertSame(renderer.renderPlan("[markdown](http://a.b)"), renderer.renderPlan("[markdown](http://a.b)"));
+        assertEquals(3, cache.hitCount());
+    }
+}
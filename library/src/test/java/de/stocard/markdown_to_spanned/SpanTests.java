@@ -46,7 +46,7 @@ public class SpanTests {
     @Test
     public void testAtxTextHeader1() throws Exception {
         String content = "# H1\n";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(2, spans.length);
@@ -57,7 +57,7 @@ public class SpanTests {
     @Test
     public void testAtxTextHeader2() throws Exception {
         String content = "## H1\n";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(2, spans.length);
@@ -69,7 +69,7 @@ public class SpanTests {
     public void testBlockQuote() throws Exception {
         String content = "> blockquote\n" +
                 "still blockquote";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(1, spans.length);
@@ -79,7 +79,7 @@ public class SpanTests {
     @Test
     public void testBoldAsterisk() throws Exception {
         String content = "**markdown**";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(1, spans.length);
@@ -89,7 +89,7 @@ public class SpanTests {
     @Test
     public void testBoldUnderscore() throws Exception {
         String content = "__markdown__";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(1, spans.length);
@@ -100,14 +100,15 @@ public class SpanTests {
     public void testCode4Spaces() throws Exception {
         String content = "    code\n" +
                 "    more code";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
-        assertEquals(2, spans.length);
+        assertEquals("code\nmore code", result.toString());
+        assertEquals(1, spans.length);
         assertEquals(TypefaceSpan.class, spans[0].getClass());
         assertEquals("monospace", ((TypefaceSpan) spans[0]).getFamily());
-        assertEquals(TypefaceSpan.class, spans[1].getClass());
-        assertEquals("monospace", ((TypefaceSpan) spans[1]).getFamily());
+        assertEquals(0, result.getSpanStart(spans[0]));
+        assertEquals(result.length(), result.getSpanEnd(spans[0]));
     }
 
     @Test
@@ -116,14 +117,15 @@ public class SpanTests {
                 "code\n" +
                 "more code\n" +
                 "```";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
-        assertEquals(2, spans.length);
+        assertEquals("code\nmore code", result.toString());
+        assertEquals(1, spans.length);
         assertEquals(TypefaceSpan.class, spans[0].getClass());
         assertEquals("monospace", ((TypefaceSpan) spans[0]).getFamily());
-        assertEquals(TypefaceSpan.class, spans[1].getClass());
-        assertEquals("monospace", ((TypefaceSpan) spans[1]).getFamily());
+        assertEquals(0, result.getSpanStart(spans[0]));
+        assertEquals(result.length(), result.getSpanEnd(spans[0]));
     }
 
     @Test
@@ -132,7 +134,37 @@ public class SpanTests {
                 "code\n" +
                 "more code\n" +
                 "~~~";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
+        printSpans(result);
+        Object[] spans = result.getSpans(0, result.length(), Object.class);
+        assertEquals("code\nmore code", result.toString());
+        assertEquals(1, spans.length);
+        assertEquals(TypefaceSpan.class, spans[0].getClass());
+        assertEquals("monospace", ((TypefaceSpan) spans[0]).getFamily());
+        assertEquals(0, result.getSpanStart(spans[0]));
+        assertEquals(result.length(), result.getSpanEnd(spans[0]));
+    }
+
+    @Test
+    public void testCodeIndentation() throws Exception {
+        String content = "    if (code) {\n" +
+                "        indented();\n" +
+                "\n" +
+                "    }";
+        Spanned result = render(content);
+        printSpans(result);
+        // runs of spaces are kept as no-break spaces by the HTML pipeline
+        assertEquals("if (code) {\n    indented();\n\n}", result.toString().replace('\u00a0', ' '));
+        Object[] spans = result.getSpans(0, result.length(), Object.class);
+        assertEquals(1, spans.length);
+        assertEquals(TypefaceSpan.class, spans[0].getClass());
+    }
+
+    @Test
+    public void testCodeSplitLines() throws Exception {
+        String content = "    code\n" +
+                "    more code";
+        Spanned result = render(content, MarkdownRenderer.CodeBlocks.SPLIT_LINES);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(2, spans.length);
@@ -145,7 +177,7 @@ public class SpanTests {
     @Test
     public void testCodeInline() throws Exception {
         String content = "Use the `printf()` function.";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
 
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
@@ -158,20 +190,21 @@ public class SpanTests {
     public void testCodeTab() throws Exception {
         String content = "\tcode\n" +
                 "\tmore code";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
-        assertEquals(2, spans.length);
+        assertEquals("code\nmore code", result.toString());
+        assertEquals(1, spans.length);
         assertEquals(TypefaceSpan.class, spans[0].getClass());
         assertEquals("monospace", ((TypefaceSpan) spans[0]).getFamily());
-        assertEquals(TypefaceSpan.class, spans[1].getClass());
-        assertEquals("monospace", ((TypefaceSpan) spans[1]).getFamily());
+        assertEquals(0, result.getSpanStart(spans[0]));
+        assertEquals(result.length(), result.getSpanEnd(spans[0]));
     }
 
     @Test
     public void testEmphAsterisk() throws Exception {
         String content = "*markdown*";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(1, spans.length);
@@ -181,18 +214,25 @@ public class SpanTests {
     @Test
     public void testEmphUnderscore() throws Exception {
         String content = "_markdown_";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(1, spans.length);
         assertEquals(Typeface.ITALIC, ((StyleSpan) spans[0]).getStyle());
     }
 
+    @Test
+    public void testEntities() throws Exception {
+        String content = "&copy; &mdash; &hellip; &#128512; &#x1F600; &#150; &#-5; &foo;";
+        Spanned result = render(content);
+        assertEquals("\u00A9 \u2014 \u2026 \uD83D\uDE00 \uD83D\uDE00 \u2013 &#-5; &foo;", result.toString());
+    }
+
     @Test
     public void testEnumeration() throws Exception {
         String content = " 1. item1\n" +
                 " 1. item2";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(2, spans.length);
@@ -206,7 +246,7 @@ public class SpanTests {
     public void testLinkWithRef() throws Exception {
         String content = "This is [an example][id] reference-style link.\n" +
                 "[id]: http://example.com/  \"Optional Title Here\"";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(1, spans.length);
@@ -217,7 +257,7 @@ public class SpanTests {
     @Test
     public void testLinkWithTitle() throws Exception {
         String content = "This is [an example](http://example.com/ \"Title\") inline link.";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(1, spans.length);
@@ -228,7 +268,7 @@ public class SpanTests {
     @Test
     public void testLinkWithoutTitle() throws Exception {
         String content = "[This link](http://example.net/) has no title attribute.";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(1, spans.length);
@@ -240,7 +280,7 @@ public class SpanTests {
     public void testListAsterisk() throws Exception {
         String content = " * item1\n" +
                 " * item2";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(4, spans.length);
@@ -254,7 +294,7 @@ public class SpanTests {
     public void testListMinus() throws Exception {
         String content = " * item1\n" +
                 " * item2";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(4, spans.length);
@@ -268,7 +308,7 @@ public class SpanTests {
     public void testListPlus() throws Exception {
         String content = " * item1\n" +
                 " * item2";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(4, spans.length);
@@ -282,7 +322,7 @@ public class SpanTests {
     public void testSetTextHeader1() throws Exception {
         String content = "H1\n" +
                 "==";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(2, spans.length);
@@ -290,6 +330,14 @@ public class SpanTests {
         assertEquals(StyleSpan.class, spans[1].getClass());
     }
 
+    protected Spanned render(String content) {
+        return Markdown.fromMarkdown(content);
+    }
+
+    protected Spanned render(String content, MarkdownRenderer.CodeBlocks codeBlocks) {
+        return new MarkdownRenderer.Builder().codeBlocks(codeBlocks).build().render(content);
+    }
+
     private void printSpans(Spanned spanned) {
         StringBuilder builder = new StringBuilder();
         builder.append(spanned.toString());
@@ -301,7 +349,7 @@ public class SpanTests {
     public void testSetTextHeader2() throws Exception {
         String content = "H1\n" +
                 "--";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(2, spans.length);
@@ -312,7 +360,7 @@ public class SpanTests {
     @Test
     public void testStrike() throws Exception {
         String content = "~~markdown~~";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(1, spans.length);
@@ -325,7 +373,7 @@ public class SpanTests {
                 "* item 2\n" +
                 "    * sublist item 1\n" +
                 "    * sublist item 2\n";
-        Spanned result = Markdown.fromMarkdown(content);
+        Spanned result = render(content);
         printSpans(result);
         Object[] spans = result.getSpans(0, result.length(), Object.class);
         assertEquals(8, spans.length);
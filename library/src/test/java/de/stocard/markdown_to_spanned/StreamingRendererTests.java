@@ -0,0 +1,124 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class StreamingRendererTests {
+
+    private static final String DOCUMENT = "\n"
+            + "# Header\n"
+            + "\n"
+            + "[1]: http://example.com\n"
+            + "Some *emphasized* text with a [link][1] and `code`.\n"
+            + "Second line\n"
+            + "\n"
+            + "* item\n"
+            + "* item with **bold**\n"
+            + "    1. nested\n"
+            + "\n"
+            + "> quoted\n"
+            + "> text\n"
+            + "\n"
+            + "    code block\n"
+            + "    second line\n"
+            + "\n"
+            + "---\n"
+            + "\n"
+            + "```\n"
+            + "fenced\n"
+            + "```\n"
+            + "Setext\n"
+            + "======\n"
+            + "* last item\n";
+
+    @Test
+    public void testEqualsCompleteRender() throws Exception {
+        final SpannableStringBuilder out = new SpannableStringBuilder();
+        new StreamingRenderer().renderInto(new StringReader(DOCUMENT), out);
+        assertEquals(describe(Markdown.fromMarkdown(DOCUMENT, Markdown.Engine.DIRECT)), describe(out));
+    }
+
+    @Test
+    public void testEmitsEveryBlock() throws Exception {
+        final List<Spanned> blocks = new ArrayList<Spanned>();
+        new StreamingRenderer().render(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")),
+                new StreamingRenderer.Listener() {
+                    @Override
+                    public void onBlock(Spanned rendered) {
+                        blocks.add(rendered);
+                    }
+                });
+        assertEquals(8, blocks.size());
+        assertEquals("Header", blocks.get(0).toString());
+        assertEquals("\n\nfenced", blocks.get(5).toString());
+    }
+
+    @Test
+    public void testLinesSplitAcrossReads() throws Exception {
+        final String crlf = DOCUMENT.replace("\n", "\r\n");
+        final SpannableStringBuilder out = new SpannableStringBuilder();
+        new StreamingRenderer().renderInto(new TrickleReader(crlf), out);
+        assertEquals(describe(Markdown.fromMarkdown(crlf, Markdown.Engine.DIRECT)), describe(out));
+    }
+
+    private static String describe(Spanned spanned) {
+        final StringBuilder description = new StringBuilder(spanned.toString());
+        for (Object span : spanned.getSpans(0, spanned.length(), Object.class)) {
+            description.append('\n').append(span.getClass().getSimpleName()).append(' ')
+                    .append(spanned.getSpanStart(span)).append('-').append(spanned.getSpanEnd(span));
+        }
+        return description.toString();
+    }
+
+    /**
+     * Returns a single character per read.
+     */
+    private static class TrickleReader extends Reader {
+        private final StringReader reader;
+
+        TrickleReader(String text) {
+            reader = new StringReader(text);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return reader.read(buffer, offset, Math.min(1, length));
+        }
+
+        @Override
+        public void close() {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package de.stocard.markdown_to_spanned;
+
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.style.QuoteSpan;
+import android.text.style.StyleSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(ManifestedRobolectricGradeTestRunner.class)
+@Config(constants = BuildConfig.class, emulateSdk = 21, manifest = Config.NONE)
+public class TrimTests {
+
+    @Test
+    public void testTrimsInPlace() {
+        SpannableStringBuilder text = new SpannableStringBuilder("\n\n bold and quoted\n\n");
+        StyleSpan bold = new StyleSpan(1);
+        QuoteSpan quote = new QuoteSpan();
+        text.setSpan(bold, 3, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(quote, 12, 20, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        Spanned trimmed = Markdown.trimInPlace(text);
+
+        assertSame(text, trimmed);
+        assertEquals("bold and quoted", trimmed.toString());
+        assertEquals(0, trimmed.getSpanStart(bold));
+        assertEquals(4, trimmed.getSpanEnd(bold));
+        assertEquals(9, trimmed.getSpanStart(quote));
+        assertEquals(15, trimmed.getSpanEnd(quote));
+    }
+
+    @Test
+    public void testDropsSpansInTrimmedWhitespace() {
+        SpannableStringBuilder text = new SpannableStringBuilder("text\n\n");
+        QuoteSpan trailing = new QuoteSpan();
+        text.setSpan(trailing, 5, 6, Spanned.SPAN_PARAGRAPH);
+
+        Spanned trimmed = Markdown.trimInPlace(text);
+
+        assertEquals("text", trimmed.toString());
+        assertEquals(0, trimmed.getSpans(0, trimmed.length(), QuoteSpan.class).length);
+    }
+
+    @Test
+    public void testTrimsImmutableTextByCopy() {
+        SpannedString text = new SpannedString(" text ");
+
+        Spanned trimmed = Markdown.trimInPlace(text);
+
+        assertNotSame(text, trimmed);
+        assertEquals("text", trimmed.toString());
+        assertEquals(" text ", text.toString());
+    }
+
+    @Test
+    public void testRenderedTextIsTrimmed() {
+        for (Markdown.Engine engine : Markdown.Engine.values()) {
+            Spanned rendered = Markdown.fromMarkdown("\n\n**bold**\n\n", engine);
+
+            assertEquals("bold", rendered.toString());
+            StyleSpan[] spans = rendered.getSpans(0, rendered.length(), StyleSpan.class);
+            assertEquals(1, spans.length);
+            assertEquals(0, rendered.getSpanStart(spans[0]));
+            assertEquals(4, rendered.getSpanEnd(spans[0]));
+        }
+    }
+}
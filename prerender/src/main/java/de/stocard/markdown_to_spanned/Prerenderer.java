@@ -0,0 +1,150 @@
+package de.stocard.markdown_to_spanned;
+/*
+ * Copyright 2016 Stocard GmbH.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.drawable.Drawable;
+import android.text.Html;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * Renders every {@code <name>.md} file of a directory tree into a {@code <name>.md2s} file holding its
+ * {@link SpanPlan}, which {@link Prerendered} loads on the device without parsing.
+ * <p>
+ * Images are kept by their source and loaded when the text is set on a view.
+ * <pre>
+ * Prerenderer [--engine MARKDOWN4J|DIRECT] &lt;markdown directory&gt; &lt;output directory&gt;
+ * </pre>
+ */
+public final class Prerenderer {
+    private static final String  MARKDOWN_SUFFIX = ".md";
+    private static final Charset UTF_8           = Charset.forName("UTF-8");
+
+    /**
+     * Stands in for every image, so the renderer keeps it. Never drawn.
+     */
+    private static final Html.ImageGetter PLACEHOLDERS = new Html.ImageGetter() {
+        @Override
+        public Drawable getDrawable(final String source) {
+            return new Drawable() {
+                @Override
+                public void draw(final Canvas canvas) {
+                }
+
+                @Override
+                public void setAlpha(final int alpha) {
+                }
+
+                @Override
+                public void setColorFilter(final ColorFilter colorFilter) {
+                }
+
+                @Override
+                public int getOpacity() {
+                    return PixelFormat.TRANSPARENT;
+                }
+            };
+        }
+    };
+
+    private final MarkdownRenderer renderer;
+
+    Prerenderer(final Markdown.Engine engine) {
+        renderer = new MarkdownRenderer.Builder()
+                .engine(engine)
+                .imageGetter(PLACEHOLDERS)
+                .build();
+    }
+
+    public static void main(final String[] args) throws IOException {
+        Markdown.Engine engine = Markdown.Engine.MARKDOWN4J;
+        int next = 0;
+        if (args.length > 1 && "--engine".equals(args[0])) {
+            engine = Markdown.Engine.valueOf(args[1]);
+            next = 2;
+        }
+        if (args.length - next != 2) {
+            System.err.println("usage: Prerenderer [--engine MARKDOWN4J|DIRECT] <markdown directory> "
+                    + "<output directory>");
+            System.exit(2);
+        }
+        final File input = new File(args[next]);
+        final File output = new File(args[next + 1]);
+        final int count = new Prerenderer(engine).prerenderTree(input, output);
+        System.out.println("prerendered " + count + " Markdown files from " + input + " into " + output);
+    }
+
+    /**
+     * Prerenders all Markdown files below the directory, keeping their relative paths. Does nothing if the directory
+     * does not exist.
+     *
+     * @return number of prerendered files
+     */
+    int prerenderTree(final File input, final File output) throws IOException {
+        final File[] files = input.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        int count = 0;
+        for (File file : files) {
+            final String name = file.getName();
+            if (file.isDirectory()) {
+                count += prerenderTree(file, new File(output, name));
+            } else if (name.endsWith(MARKDOWN_SUFFIX)) {
+                final String base = name.substring(0, name.length() - MARKDOWN_SUFFIX.length());
+                prerender(file, new File(output, base + Prerendered.SUFFIX));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    void prerender(final File markdown, final File prerendered) throws IOException {
+        final SpanPlan plan = renderer.renderPlan(new String(Files.readAllBytes(markdown.toPath()), UTF_8));
+        if (plan == null) {
+            throw new IOException("could not render " + markdown);
+        }
+        if (!plan.isSerializable()) {
+            throw new IOException("rendering " + markdown + " produced spans that can't be prerendered");
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(plan.serializedSize());
+        plan.writeTo(buffer);
+        buffer.flip();
+
+        final File directory = prerendered.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        final FileOutputStream out = new FileOutputStream(prerendered);
+        try {
+            final FileChannel channel = out.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -18,8 +18,11 @@ package de.stocard.markdown_to_spanned.sample;
 
 import android.app.Activity;
 import android.os.Bundle;
+import android.util.Log;
 import android.widget.TextView;
 
+import java.io.IOException;
+
 import de.stocard.markdown_to_spanned.Markdown;
 
 
@@ -123,6 +126,14 @@ public class MainActivity extends Activity {
 
 		final TextView linebreak = (TextView) findViewById(R.id.linebreak);
 		Markdown.setMarkdown("Text with line\n break", linebreak);
+
+		// src/main/markdown/about.md, prerendered at build time
+		final TextView prerendered = (TextView) findViewById(R.id.prerendered);
+		try {
+			Markdown.setPrerendered("markdown/about.md2s", prerendered);
+		} catch (IOException e) {
+			Log.e("md2s-sample", "could not load prerendered text", e);
+		}
 	}
 
 